@@ -0,0 +1,64 @@
+package org.springframework.roo.shell;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks {@link SimpleParser#matchCommand(String, String[], boolean)}, which is called for each
+ * candidate command on every parse and completion, for inputs of increasing length.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandMatchBenchmark {
+
+	// Constants
+	private static final String[] COMMAND_WORDS = { "web", "mvc", "scaffold" };
+
+	// Fields
+	@Param({ "0", "100", "1000" })
+	private int optionLength;
+
+	private String buffer;
+	private String mismatch;
+
+	@Setup
+	public void setUp() {
+		final StringBuilder options = new StringBuilder(" --comment \"");
+		while (options.length() < optionLength) {
+			options.append("word ");
+		}
+		options.append('"');
+		buffer = "web mvc scaffold" + (optionLength == 0 ? "" : options.toString());
+		mismatch = "web mvc setup" + (optionLength == 0 ? "" : options.toString());
+	}
+
+	@Benchmark
+	public int matchStrict() {
+		return SimpleParser.matchCommand(buffer, COMMAND_WORDS, true);
+	}
+
+	@Benchmark
+	public int matchAbbreviated() {
+		return SimpleParser.matchCommand("w m sc", COMMAND_WORDS, false);
+	}
+
+	@Benchmark
+	public int mismatch() {
+		return SimpleParser.matchCommand(mismatch, COMMAND_WORDS, true);
+	}
+}
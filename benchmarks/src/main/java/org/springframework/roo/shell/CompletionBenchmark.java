@@ -0,0 +1,77 @@
+package org.springframework.roo.shell;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks {@link SimpleParser#completeAdvanced(String, int, List)} at the points where users
+ * typically press TAB: part way through a command name, after a command name, and part way
+ * through an option name.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompletionBenchmark {
+
+	// Constants
+	private static final int INPUTS = 64;
+
+	// Fields
+	@Param({ "10", "1000", "10000" })
+	private int markers;
+
+	private SimpleParser parser;
+	private String[] commandNames;
+	private int next;
+
+	@Setup
+	public void setUp() {
+		final SyntheticCommands commands = SyntheticCommands.generate(markers, 42);
+		parser = commands.newParser();
+		commandNames = SyntheticCommands.sample(commands.getCommandNames(), INPUTS);
+	}
+
+	@Benchmark
+	public List<Completion> completeCommandPrefix() {
+		// e.g. "entity0001", which up to ten commands start with
+		final String commandName = nextCommandName();
+		return complete(commandName.substring(0, commandName.indexOf(' ') - 1));
+	}
+
+	@Benchmark
+	public List<Completion> completeOptionKeys() {
+		return complete(nextCommandName() + " --");
+	}
+
+	@Benchmark
+	public List<Completion> completeOptionKeyPrefix() {
+		return complete(nextCommandName() + " --na");
+	}
+
+	private String nextCommandName() {
+		next = (next + 1) % INPUTS;
+		return commandNames[next];
+	}
+
+	private List<Completion> complete(final String buffer) {
+		final List<Completion> candidates = new ArrayList<Completion>();
+		parser.completeAdvanced(buffer, buffer.length(), candidates);
+		return candidates;
+	}
+}
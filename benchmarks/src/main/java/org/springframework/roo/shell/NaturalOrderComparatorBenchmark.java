@@ -0,0 +1,51 @@
+package org.springframework.roo.shell;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks sorting the generated command names with the {@link NaturalOrderComparator}, as done
+ * when listing commands (e.g. for "help" and completion).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NaturalOrderComparatorBenchmark {
+
+	// Fields
+	@Param({ "10", "1000", "10000" })
+	private int markers;
+
+	private final NaturalOrderComparator<String> comparator = new NaturalOrderComparator<String>();
+	private List<String> commandNames;
+
+	@Setup
+	public void setUp() {
+		commandNames = new ArrayList<String>(SyntheticCommands.generate(markers, 42).getCommandNames());
+		Collections.shuffle(commandNames);
+	}
+
+	@Benchmark
+	public List<String> sort() {
+		final List<String> sorted = new ArrayList<String>(commandNames);
+		Collections.sort(sorted, comparator);
+		return sorted;
+	}
+}
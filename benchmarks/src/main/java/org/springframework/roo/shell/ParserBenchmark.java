@@ -0,0 +1,57 @@
+package org.springframework.roo.shell;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks {@link SimpleParser#parse(String)} of valid command lines, spread over every generated
+ * command, against registries of various sizes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+	// Constants
+	private static final int INPUTS = 256;
+
+	// Fields
+	@Param({ "10", "1000", "10000" })
+	private int markers;
+
+	private SimpleParser parser;
+	private String[] inputs;
+	private int next;
+
+	@Setup
+	public void setUp() {
+		final SyntheticCommands commands = SyntheticCommands.generate(markers, 42);
+		parser = commands.newParser();
+		inputs = SyntheticCommands.sample(commands.getValidInputs(), INPUTS);
+		for (final String input : inputs) {
+			if (parser.parse(input) == null) {
+				throw new IllegalStateException("Generated input '" + input + "' did not parse");
+			}
+		}
+	}
+
+	@Benchmark
+	public ParseResult parse() {
+		next = (next + 1) % INPUTS;
+		return parser.parse(inputs[next]);
+	}
+}
@@ -0,0 +1,253 @@
+package org.springframework.roo.shell;
+
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.ACC_SUPER;
+import static org.objectweb.asm.Opcodes.ALOAD;
+import static org.objectweb.asm.Opcodes.INVOKESPECIAL;
+import static org.objectweb.asm.Opcodes.RETURN;
+import static org.objectweb.asm.Opcodes.V1_5;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+import org.springframework.roo.shell.converters.BooleanConverter;
+import org.springframework.roo.shell.converters.EnumConverter;
+import org.springframework.roo.shell.converters.IntegerConverter;
+import org.springframework.roo.shell.converters.LongConverter;
+import org.springframework.roo.shell.converters.StringConverter;
+
+/**
+ * A registry of {@link CommandMarker} classes generated with ASM, for benchmarking the parser against
+ * realistic numbers of commands without hand-writing them.
+ *
+ * <p>
+ * Each marker offers one to four commands named like Roo's ("entity00017 add", "web00017 scaffold", ...),
+ * each taking a mix of mandatory and optional String, numeric, boolean and enum options, including
+ * a default option for some. Indexes are zero-padded so that no command is a prefix of another, and the
+ * same seed always generates the same commands.
+ */
+public final class SyntheticCommands {
+
+	// Constants
+	// No noun starts with a verb, as the parser would take such a verb to be a repeat of the noun
+	private static final String[] NOUNS = { "entity", "field", "web", "finder", "test", "project", "controller", "jms" };
+	private static final String[] VERBS = { "add", "remove", "setup", "list", "scaffold", "update", "install", "all" };
+	private static final OptionTemplate[] OPTIONS = {
+		new OptionTemplate("name", String.class, true, "", "", "foo"),
+		new OptionTemplate("package", String.class, false, "", "", "~.domain"),
+		new OptionTemplate("count", Integer.class, false, "", "1", "42"),
+		new OptionTemplate("timeout", Long.class, false, "", "__NULL__", "30000"),
+		new OptionTemplate("force", boolean.class, false, "true", "false", null),
+		new OptionTemplate("permitReservedWords", boolean.class, false, "true", "false", "true"),
+		new OptionTemplate("unit", TimeUnit.class, false, "", "SECONDS", "MILLISECONDS"),
+		new OptionTemplate("comment", String.class, false, "", "", "\"a quoted comment\"")
+	};
+	private static final String CLI_COMMAND = Type.getDescriptor(CliCommand.class);
+	private static final String CLI_OPTION = Type.getDescriptor(CliOption.class);
+
+	// Fields
+	private final List<CommandMarker> markers = new ArrayList<CommandMarker>();
+	private final List<String> commandNames = new ArrayList<String>();
+	private final List<String> validInputs = new ArrayList<String>();
+
+	/**
+	 * Generates the given number of command markers
+	 *
+	 * @param markerCount the number of markers to generate
+	 * @param seed the seed for choosing each marker's commands and their options
+	 * @return a non-<code>null</code> instance
+	 */
+	public static SyntheticCommands generate(final int markerCount, final long seed) {
+		final SyntheticCommands commands = new SyntheticCommands();
+		final Random random = new Random(seed);
+		final GeneratingClassLoader classLoader = new GeneratingClassLoader(SyntheticCommands.class.getClassLoader());
+		for (int i = 0; i < markerCount; i++) {
+			commands.generateMarker(classLoader, i, random);
+		}
+		return commands;
+	}
+
+	private SyntheticCommands() {}
+
+	private void generateMarker(final GeneratingClassLoader classLoader, final int index, final Random random) {
+		final String className = "org.springframework.roo.shell.synthetic.Commands" + index;
+		final ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		writer.visit(V1_5, ACC_PUBLIC | ACC_SUPER, className.replace('.', '/'), null, "java/lang/Object", new String[] { Type.getInternalName(CommandMarker.class) });
+
+		final MethodVisitor constructor = writer.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+		constructor.visitCode();
+		constructor.visitVarInsn(ALOAD, 0);
+		constructor.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+		constructor.visitInsn(RETURN);
+		constructor.visitMaxs(0, 0);
+		constructor.visitEnd();
+
+		final int commandCount = 1 + random.nextInt(4);
+		final int firstVerb = random.nextInt(VERBS.length);
+		for (int i = 0; i < commandCount; i++) {
+			final String commandName = NOUNS[(index + i) % NOUNS.length] + String.format("%05d", index) + " " + VERBS[(firstVerb + i) % VERBS.length];
+			generateCommand(writer, commandName, "command" + i, random);
+		}
+		writer.visitEnd();
+
+		try {
+			markers.add((CommandMarker) classLoader.define(className, writer.toByteArray()).newInstance());
+		} catch (final Exception e) {
+			throw new IllegalStateException("Could not instantiate " + className, e);
+		}
+	}
+
+	private void generateCommand(final ClassWriter writer, final String commandName, final String methodName, final Random random) {
+		// Choose a mix of options, always including the mandatory "name"
+		final List<OptionTemplate> options = new ArrayList<OptionTemplate>();
+		options.add(OPTIONS[0]);
+		final List<OptionTemplate> optional = new ArrayList<OptionTemplate>();
+		for (int i = 1; i < OPTIONS.length; i++) {
+			optional.add(OPTIONS[i]);
+		}
+		Collections.shuffle(optional, random);
+		options.addAll(optional.subList(0, random.nextInt(optional.size())));
+		final boolean defaultOption = random.nextInt(4) == 0;
+
+		final Type[] parameterTypes = new Type[options.size()];
+		for (int i = 0; i < parameterTypes.length; i++) {
+			parameterTypes[i] = Type.getType(options.get(i).type);
+		}
+		final MethodVisitor method = writer.visitMethod(ACC_PUBLIC, methodName, Type.getMethodDescriptor(Type.VOID_TYPE, parameterTypes), null, null);
+
+		final AnnotationVisitor command = method.visitAnnotation(CLI_COMMAND, true);
+		final AnnotationVisitor values = command.visitArray("value");
+		values.visit(null, commandName);
+		values.visitEnd();
+		command.visit("help", "Synthetic command " + commandName);
+		command.visitEnd();
+
+		final StringBuilder input = new StringBuilder(commandName);
+		for (int i = 0; i < options.size(); i++) {
+			final OptionTemplate option = options.get(i);
+			final boolean isDefault = defaultOption && i == 0;
+			final AnnotationVisitor cliOption = method.visitParameterAnnotation(i, CLI_OPTION, true);
+			final AnnotationVisitor keys = cliOption.visitArray("key");
+			if (isDefault) {
+				keys.visit(null, "");
+			}
+			keys.visit(null, option.key);
+			keys.visitEnd();
+			cliOption.visit("mandatory", option.mandatory);
+			cliOption.visit("help", "The " + option.key);
+			cliOption.visit("specifiedDefaultValue", option.specifiedDefaultValue);
+			cliOption.visit("unspecifiedDefaultValue", option.unspecifiedDefaultValue);
+			cliOption.visitEnd();
+
+			if (isDefault) {
+				input.append(' ').append(option.sampleValue);
+			} else if (option.mandatory || random.nextBoolean()) {
+				input.append(" --").append(option.key);
+				if (option.sampleValue != null) {
+					input.append(' ').append(option.sampleValue);
+				}
+			}
+		}
+
+		method.visitCode();
+		method.visitInsn(RETURN);
+		method.visitMaxs(0, 0);
+		method.visitEnd();
+
+		commandNames.add(commandName);
+		validInputs.add(input.toString());
+	}
+
+	/**
+	 * Returns a new parser with every generated command and the converters they need
+	 *
+	 * @return a non-<code>null</code> parser
+	 */
+	public SimpleParser newParser() {
+		final SimpleParser parser = new SimpleParser();
+		parser.add(new StringConverter());
+		parser.add(new IntegerConverter());
+		parser.add(new LongConverter());
+		parser.add(new BooleanConverter());
+		parser.add(new EnumConverter());
+		for (final CommandMarker marker : markers) {
+			parser.add(marker);
+		}
+		return parser;
+	}
+
+	/**
+	 * Returns the names of the generated commands, in the order generated
+	 *
+	 * @return a non-empty list
+	 */
+	public List<String> getCommandNames() {
+		return Collections.unmodifiableList(commandNames);
+	}
+
+	/**
+	 * Returns a valid command line for each generated command, in the order generated
+	 *
+	 * @return a non-empty list
+	 */
+	public List<String> getValidInputs() {
+		return Collections.unmodifiableList(validInputs);
+	}
+
+	/**
+	 * Returns the given number of inputs spread evenly over the generated commands
+	 *
+	 * @param inputs the source of each input, e.g. {@link #getValidInputs()}
+	 * @param count the number of inputs to return
+	 * @return a non-<code>null</code> array
+	 */
+	public static String[] sample(final List<String> inputs, final int count) {
+		final String[] sample = new String[count];
+		for (int i = 0; i < count; i++) {
+			sample[i] = inputs.get((int) ((long) i * inputs.size() / count));
+		}
+		return sample;
+	}
+
+	/**
+	 * The shape of one kind of option.
+	 */
+	private static class OptionTemplate {
+		final boolean mandatory;
+		final Class<?> type;
+		final String key;
+		final String sampleValue; // null for a flag
+		final String specifiedDefaultValue;
+		final String unspecifiedDefaultValue;
+
+		OptionTemplate(final String key, final Class<?> type, final boolean mandatory, final String specifiedDefaultValue, final String unspecifiedDefaultValue, final String sampleValue) {
+			this.key = key;
+			this.mandatory = mandatory;
+			this.sampleValue = sampleValue;
+			this.specifiedDefaultValue = specifiedDefaultValue;
+			this.type = type;
+			this.unspecifiedDefaultValue = unspecifiedDefaultValue;
+		}
+	}
+
+	/**
+	 * Defines the generated classes.
+	 */
+	private static class GeneratingClassLoader extends ClassLoader {
+
+		GeneratingClassLoader(final ClassLoader parent) {
+			super(parent);
+		}
+
+		Class<?> define(final String name, final byte[] bytecode) {
+			return defineClass(name, bytecode, 0, bytecode.length);
+		}
+	}
+}
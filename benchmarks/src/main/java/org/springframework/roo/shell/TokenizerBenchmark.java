@@ -0,0 +1,41 @@
+package org.springframework.roo.shell;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks {@link ParserUtils#tokenize(String)} of typical option strings.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenizerBenchmark {
+
+	// Fields
+	@Param({
+		"--name foo",
+		"--class ~.domain.Person --testAutomatically --activeRecord false",
+		"Person --package ~.domain --comment \"a longer quoted comment with spaces\" --force",
+		"--fieldName firstName --type java.lang.String --notNull --sizeMin 1 --sizeMax 30 --regexp \"[A-Z].*\" --column first_name --comment \"The person's first name\" --transient false"
+	})
+	private String options;
+
+	@Benchmark
+	public Map<String, String> tokenize() {
+		return ParserUtils.tokenize(options);
+	}
+}
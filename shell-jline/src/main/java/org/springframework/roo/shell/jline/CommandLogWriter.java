@@ -0,0 +1,248 @@
+package org.springframework.roo.shell.jline;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.roo.support.util.Assert;
+import org.springframework.roo.support.util.IOUtils;
+
+/**
+ * Appends lines to the shell's command log on a background thread, so that the command thread
+ * never waits for the disk.
+ *
+ * <p>
+ * Lines are handed over through a bounded queue (a full queue makes callers wait, rather than
+ * losing lines), and are written in groups: the buffered lines are written out once they reach a
+ * given size, or once the first of them has waited a given time, so that <code>tail -f</code> still
+ * shows progress promptly. {@link #close()} waits until every line logged before it has been
+ * written.
+ *
+ * <p>
+ * If the log can't be written, later lines are discarded, as they were when the log was written
+ * directly.
+ *
+ * <p>
+ * The log can be rotated into {@link LogSegments}; this is done by the background thread, between
+ * groups of lines.
+ */
+final class CommandLogWriter {
+
+	// Constants
+	private static final Object END = new Object();
+
+	// Fields
+	private final File file;
+	private final LogSegments segments;
+	private final BlockingQueue<Object> lines;
+	private final ByteBuffer buffer;
+	private final CharsetEncoder encoder = Charset.defaultCharset().newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private final long flushNanos;
+	private final Thread writer;
+	private FileChannel channel; // accessed by the writer thread only; null once it fails
+	private long firstBufferedAt; // when the oldest buffered line was buffered
+	private boolean rotating; // accessed by the writer thread only; false once rotation fails
+	private boolean closed; // guarded by this
+
+	/**
+	 * Opens the given log for appending
+	 *
+	 * @param file the log file (required)
+	 * @param segments the segments into which to rotate the log; can be <code>null</code> for none
+	 * @param queueCapacity the maximum number of lines waiting to be written
+	 * @param flushBytes the number of bytes that are written as soon as they've been buffered
+	 * @param flushMillis the longest a line waits to be written, in milliseconds
+	 * @throws IOException if the file can't be opened
+	 */
+	CommandLogWriter(final File file, final LogSegments segments, final int queueCapacity, final int flushBytes, final long flushMillis) throws IOException {
+		Assert.notNull(file, "Log file required");
+		Assert.isTrue(flushBytes > 0, "Flush size must be positive");
+		this.file = file;
+		this.segments = segments;
+		this.rotating = segments != null;
+		if (rotating) {
+			try {
+				segments.open();
+			} catch (IOException e) {
+				// Log to the same file as before, without rotating it
+				rotating = false;
+			}
+		}
+		this.buffer = ByteBuffer.allocate(flushBytes);
+		this.channel = new FileOutputStream(file, true).getChannel();
+		this.flushNanos = TimeUnit.MILLISECONDS.toNanos(flushMillis);
+		this.lines = new ArrayBlockingQueue<Object>(queueCapacity);
+		this.writer = new Thread(new Runnable() {
+			public void run() {
+				write();
+			}
+		}, "Command log writer: " + file.getName());
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	/**
+	 * Appends the given line to the log, waiting if too many lines are already waiting to be written
+	 *
+	 * @param line the line to append, without a line terminator (required)
+	 */
+	void log(final String line) {
+		Assert.notNull(line, "Line required");
+		// Checked and queued while holding the lock that close() holds, so that no line follows END
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			try {
+				lines.put(line);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Closes the log once every line already logged has been written; does nothing if already closed
+	 */
+	synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		boolean interrupted = false;
+		while (true) {
+			try {
+				lines.put(END);
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		while (writer.isAlive()) {
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void write() {
+		final List<Object> batch = new ArrayList<Object>();
+		try {
+			while (true) {
+				final Object first;
+				if (buffer.position() == 0) {
+					first = lines.take();
+				} else {
+					first = lines.poll(flushNanos - (System.nanoTime() - firstBufferedAt), TimeUnit.NANOSECONDS);
+				}
+				if (first == null) {
+					// The oldest buffered line has waited long enough
+					flush();
+					continue;
+				}
+				batch.add(first);
+				lines.drainTo(batch);
+				for (final Object line : batch) {
+					if (line == END) {
+						flush();
+						return;
+					}
+					append((String) line);
+				}
+				batch.clear();
+			}
+		} catch (InterruptedException e) {
+			// Only this class has access to the thread, so this isn't expected
+			flush();
+		} finally {
+			IOUtils.closeQuietly(channel);
+			channel = null;
+		}
+	}
+
+	private void append(final String line) {
+		final ByteBuffer bytes;
+		try {
+			bytes = encoder.encode(CharBuffer.wrap(line + "\n")); // Unix line endings only from Roo
+		} catch (CharacterCodingException e) {
+			// Not possible when replacing malformed and unmappable characters
+			throw new IllegalStateException(e);
+		}
+		if (bytes.remaining() > buffer.remaining()) {
+			flush();
+		}
+		if (bytes.remaining() > buffer.capacity()) {
+			// Too long to buffer
+			writeFully(bytes);
+			return;
+		}
+		if (buffer.position() == 0) {
+			firstBufferedAt = System.nanoTime();
+		}
+		buffer.put(bytes);
+		if (!buffer.hasRemaining()) {
+			flush();
+		}
+	}
+
+	private void flush() {
+		buffer.flip();
+		writeFully(buffer);
+		buffer.clear();
+		rotateIfDue();
+	}
+
+	private void rotateIfDue() {
+		if (channel == null || !rotating) {
+			return;
+		}
+		try {
+			if (!segments.isDue(channel.size())) {
+				return;
+			}
+			channel.close();
+			try {
+				segments.rotate();
+			} catch (IOException e) {
+				// Carry on with the same log, without trying again
+				rotating = false;
+			}
+			channel = new FileOutputStream(file, true).getChannel();
+		} catch (IOException e) {
+			IOUtils.closeQuietly(channel);
+			channel = null;
+		}
+	}
+
+	private void writeFully(final ByteBuffer bytes) {
+		if (channel == null) {
+			return;
+		}
+		try {
+			while (bytes.hasRemaining()) {
+				channel.write(bytes);
+			}
+		} catch (IOException e) {
+			// Give up on the log, but keep taking lines so that loggers never block
+			IOUtils.closeQuietly(channel);
+			channel = null;
+		}
+	}
+}
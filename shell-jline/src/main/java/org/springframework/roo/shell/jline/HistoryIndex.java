@@ -0,0 +1,211 @@
+package org.springframework.roo.shell.jline;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.springframework.roo.support.util.Assert;
+
+/**
+ * An index of the commands in the shell's history, so that they can be searched without scanning
+ * them all.
+ *
+ * <p>
+ * Each command is indexed by the trigrams (sequences of three characters) it contains. A search for
+ * a term of three or more characters only considers the commands containing the term's rarest
+ * trigram, most recent first; shorter terms are looked for in every command, most recent first,
+ * which is quick as they're likely to occur in one of the latest. Commands are also kept sorted,
+ * so that those starting with given text can be found directly.
+ *
+ * <p>
+ * Commands are identified by their position in the history, oldest first, as for JLine's history.
+ */
+final class HistoryIndex {
+
+	// Constants
+	private static final int TRIGRAM_LENGTH = 3;
+
+	// Fields
+	private final List<String> commands = new ArrayList<String>(); // by id, including removed ones
+	private final Map<String, Postings> postings = new HashMap<String, Postings>(); // by trigram
+	private final TreeMap<String, Integer> latestIds = new TreeMap<String, Integer>(); // by command
+	private int firstId; // the id of the oldest command that hasn't been removed
+
+	/**
+	 * Adds the given command as the most recent one
+	 *
+	 * @param command the command to add (required)
+	 */
+	void add(final String command) {
+		Assert.notNull(command, "Command required");
+		final int id = commands.size();
+		commands.add(command);
+		latestIds.put(command, id);
+		for (int i = 0; i + TRIGRAM_LENGTH <= command.length(); i++) {
+			final String trigram = command.substring(i, i + TRIGRAM_LENGTH);
+			Postings ids = postings.get(trigram);
+			if (ids == null) {
+				ids = new Postings();
+				postings.put(trigram, ids);
+			}
+			ids.add(id); // once per command, however often it contains the trigram
+		}
+	}
+
+	/**
+	 * Removes the oldest command, e.g. because the history is full
+	 */
+	void removeOldest() {
+		Assert.isTrue(size() > 0, "The history is empty");
+		final String oldest = commands.get(firstId);
+		if (latestIds.get(oldest) == firstId) {
+			latestIds.remove(oldest);
+		}
+		commands.set(firstId++, null);
+		if (firstId > 1024 && firstId > commands.size() / 2) {
+			// Most of what's indexed has been removed, so start again with what's left
+			final List<String> remaining = new ArrayList<String>(commands.subList(firstId, commands.size()));
+			clear();
+			for (final String command : remaining) {
+				add(command);
+			}
+		}
+	}
+
+	void clear() {
+		commands.clear();
+		postings.clear();
+		latestIds.clear();
+		firstId = 0;
+	}
+
+	/**
+	 * Returns the number of commands in the index
+	 *
+	 * @return zero or more
+	 */
+	int size() {
+		return commands.size() - firstId;
+	}
+
+	/**
+	 * Returns the command at the given position
+	 *
+	 * @param position the command's position, the oldest being zero
+	 * @return a non-<code>null</code> command
+	 */
+	String get(final int position) {
+		Assert.isTrue(position >= 0 && position < size(), "No command at position " + position);
+		return commands.get(firstId + position);
+	}
+
+	/**
+	 * Finds the most recent command before the given position that contains the given term, as for
+	 * {@link jline.History#searchBackwards(String, int)}
+	 *
+	 * @param term the text to find (required)
+	 * @param before the position before which to search
+	 * @return the position of the command found, or -1 if there isn't one
+	 */
+	int searchBackwards(final String term, final int before) {
+		Assert.notNull(term, "Search term required");
+		final int end = firstId + Math.min(before, size()); // the id before which to search
+		if (term.length() < TRIGRAM_LENGTH) {
+			for (int id = end - 1; id >= firstId; id--) {
+				if (commands.get(id).contains(term)) {
+					return id - firstId;
+				}
+			}
+			return -1;
+		}
+
+		// Only the commands containing every trigram of the term can contain it
+		Postings rarest = null;
+		for (int i = 0; i + TRIGRAM_LENGTH <= term.length(); i++) {
+			final Postings ids = postings.get(term.substring(i, i + TRIGRAM_LENGTH));
+			if (ids == null) {
+				return -1;
+			}
+			if (rarest == null || ids.size < rarest.size) {
+				rarest = ids;
+			}
+		}
+		for (int i = rarest.indexBefore(end); i >= 0; i--) {
+			final int id = rarest.ids[i];
+			if (id < firstId) {
+				break;
+			}
+			if (commands.get(id).contains(term)) {
+				return id - firstId;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the distinct commands starting with the given text, most recent first
+	 *
+	 * @param prefix the text with which they start (required)
+	 * @param max the maximum number of commands to return
+	 * @return a non-<code>null</code> list
+	 */
+	List<String> getCommandsStartingWith(final String prefix, final int max) {
+		Assert.notNull(prefix, "Prefix required");
+		final List<Integer> ids = new ArrayList<Integer>();
+		for (final Entry<String, Integer> command : latestIds.tailMap(prefix).entrySet()) {
+			if (!command.getKey().startsWith(prefix)) {
+				break;
+			}
+			ids.add(command.getValue());
+		}
+		Collections.sort(ids, Collections.reverseOrder());
+		final List<String> commandsFound = new ArrayList<String>();
+		for (int i = 0; i < ids.size() && i < max; i++) {
+			commandsFound.add(commands.get(ids.get(i)));
+		}
+		return commandsFound;
+	}
+
+	/**
+	 * The ids of the commands containing a trigram, in ascending order.
+	 */
+	private static class Postings {
+		int[] ids = new int[4];
+		int size;
+
+		void add(final int id) {
+			if (size > 0 && ids[size - 1] == id) {
+				return;
+			}
+			if (size == ids.length) {
+				final int[] newIds = new int[size * 2];
+				System.arraycopy(ids, 0, newIds, 0, size);
+				ids = newIds;
+			}
+			ids[size++] = id;
+		}
+
+		/**
+		 * Returns the index of the last id before the given one
+		 *
+		 * @return -1 if there's none
+		 */
+		int indexBefore(final int id) {
+			int low = 0;
+			int high = size - 1;
+			while (low <= high) {
+				final int middle = (low + high) >>> 1;
+				if (ids[middle] < id) {
+					low = middle + 1;
+				} else {
+					high = middle - 1;
+				}
+			}
+			return high;
+		}
+	}
+}
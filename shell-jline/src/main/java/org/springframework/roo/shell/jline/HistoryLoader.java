@@ -0,0 +1,158 @@
+package org.springframework.roo.shell.jline;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.springframework.roo.support.util.Assert;
+import org.springframework.roo.support.util.IOUtils;
+
+/**
+ * Reads the most recent commands from the shell's command log, for the command history.
+ *
+ * <p>
+ * The log is scanned backwards from its end, a chunk at a time, and scanning stops as soon as
+ * enough commands have been found, so the time and memory taken depend on the number of commands
+ * wanted rather than the size of the log. Only if the log doesn't hold enough commands are its
+ * older, compressed segments read.
+ */
+final class HistoryLoader {
+
+	// Constants
+	private static final int CHUNK_SIZE = 8192;
+
+	/**
+	 * Returns the last commands in the given log, i.e. its lines other than comments and blank lines
+	 *
+	 * @param log the log file (required)
+	 * @param length the number of bytes of the log to read, e.g. its length before anything else was logged
+	 * @param maxCommands the maximum number of commands to return
+	 * @return the commands, oldest first
+	 * @throws IOException if the log couldn't be read
+	 */
+	static List<String> readLastCommands(final File log, final long length, final int maxCommands) throws IOException {
+		Assert.notNull(log, "Log file required");
+		final LinkedList<String> commands = new LinkedList<String>();
+		if (maxCommands <= 0 || !log.isFile()) {
+			return commands;
+		}
+		final String charset = Charset.defaultCharset().name();
+		final RandomAccessFile file = new RandomAccessFile(log, "r");
+		try {
+			final byte[] chunk = new byte[CHUNK_SIZE];
+			// The end of a line that began in an earlier chunk, in pieces, last piece first
+			final List<byte[]> carry = new ArrayList<byte[]>();
+			long position = Math.min(length, file.length());
+			while (position > 0) {
+				final int chunkLength = (int) Math.min(CHUNK_SIZE, position);
+				position -= chunkLength;
+				file.seek(position);
+				file.readFully(chunk, 0, chunkLength);
+				int end = chunkLength;
+				for (int i = chunkLength - 1; i >= 0; i--) {
+					if (chunk[i] == '\n') {
+						addCommand(commands, join(chunk, i + 1, end, carry), charset);
+						carry.clear();
+						if (commands.size() == maxCommands) {
+							return commands;
+						}
+						end = i;
+					}
+				}
+				if (end > 0) {
+					carry.add(join(chunk, 0, end, Collections.<byte[]> emptyList()));
+				}
+			}
+			// The first line of the log
+			addCommand(commands, join(chunk, 0, 0, carry), charset);
+			return commands;
+		} finally {
+			IOUtils.closeQuietly(file);
+		}
+	}
+
+	/**
+	 * As {@link #readLastCommands(File, long, int)}, continuing into the log's compressed segments
+	 * if the log itself doesn't hold enough commands
+	 *
+	 * @param log the log file (required)
+	 * @param length the number of bytes of the log to read
+	 * @param segments the log's compressed segments, newest first (required)
+	 * @param maxCommands the maximum number of commands to return
+	 * @return the commands, oldest first
+	 * @throws IOException if the log or a segment couldn't be read
+	 * @see LogSegments#getSegments()
+	 */
+	static List<String> readLastCommands(final File log, final long length, final List<File> segments, final int maxCommands) throws IOException {
+		Assert.notNull(segments, "Segments required");
+		final List<String> commands = readLastCommands(log, length, maxCommands);
+		for (final Iterator<File> iter = segments.iterator(); iter.hasNext() && commands.size() < maxCommands;) {
+			// Segments are compressed, so are read from the start
+			final List<String> older = new ArrayList<String>();
+			final BufferedReader in = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(iter.next())), Charset.defaultCharset().name()));
+			try {
+				String line;
+				while ((line = in.readLine()) != null) {
+					if (isCommand(line)) {
+						older.add(line);
+					}
+				}
+			} finally {
+				IOUtils.closeQuietly(in);
+			}
+			commands.addAll(0, older.subList(Math.max(0, older.size() - (maxCommands - commands.size())), older.size()));
+		}
+		return commands;
+	}
+
+	/**
+	 * Joins the given part of a chunk to the pieces of the line that follow it, copying each byte once
+	 *
+	 * @param chunk the chunk containing the start of the line (required)
+	 * @param from the index of that start within the chunk
+	 * @param to the index within the chunk at which the line or chunk ends
+	 * @param carry the rest of the line, last piece first (required)
+	 * @return the whole line
+	 */
+	private static byte[] join(final byte[] chunk, final int from, final int to, final List<byte[]> carry) {
+		int length = to - from;
+		for (final byte[] piece : carry) {
+			length += piece.length;
+		}
+		final byte[] bytes = new byte[length];
+		System.arraycopy(chunk, from, bytes, 0, to - from);
+		int offset = to - from;
+		for (int i = carry.size() - 1; i >= 0; i--) {
+			final byte[] piece = carry.get(i);
+			System.arraycopy(piece, 0, bytes, offset, piece.length);
+			offset += piece.length;
+		}
+		return bytes;
+	}
+
+	private static void addCommand(final LinkedList<String> commands, final byte[] line, final String charset) throws IOException {
+		String command = new String(line, charset);
+		if (command.endsWith("\r")) {
+			command = command.substring(0, command.length() - 1);
+		}
+		if (isCommand(command)) {
+			commands.addFirst(command);
+		}
+	}
+
+	private static boolean isCommand(final String line) {
+		return line.trim().length() > 0 && !line.startsWith("//");
+	}
+
+	private HistoryLoader() {}
+}
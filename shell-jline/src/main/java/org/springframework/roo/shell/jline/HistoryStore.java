@@ -0,0 +1,162 @@
+package org.springframework.roo.shell.jline;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.springframework.roo.support.util.Assert;
+import org.springframework.roo.support.util.IOUtils;
+
+/**
+ * The file in which the shell's command history is kept from one session to the next.
+ *
+ * <p>
+ * Commands are appended to the file as they're entered, one per line. When the history is loaded,
+ * only the most recent occurrence of each command is kept, up to a maximum number of commands; if
+ * the file has grown to twice the size of what's kept, it's compacted by being rewritten with only
+ * what's kept.
+ */
+final class HistoryStore {
+
+	// Constants
+	private static final String ENCODING = "UTF-8";
+	private static final int COMPACTION_RATIO = 2;
+
+	// Fields
+	private final File file;
+	private final int maxCommands;
+	private Writer out; // opened when first appended to
+
+	/**
+	 * Constructor
+	 *
+	 * @param file the file in which to keep the history (required)
+	 * @param maxCommands the maximum number of commands to keep
+	 */
+	HistoryStore(final File file, final int maxCommands) {
+		Assert.notNull(file, "History file required");
+		this.file = file;
+		this.maxCommands = maxCommands;
+	}
+
+	/**
+	 * Indicates whether the history file exists
+	 *
+	 * @return <code>false</code> if no commands have been kept yet
+	 */
+	boolean exists() {
+		return file.isFile();
+	}
+
+	/**
+	 * Reads the history, compacting the file if necessary
+	 *
+	 * @return the distinct commands in the history, oldest first
+	 * @throws IOException if the history couldn't be read
+	 */
+	synchronized List<String> load() throws IOException {
+		final List<String> lines = readLines();
+
+		// Keep the latest occurrence of each command
+		final List<String> commands = new ArrayList<String>();
+		final Set<String> kept = new HashSet<String>();
+		for (int i = lines.size() - 1; i >= 0 && commands.size() < maxCommands; i--) {
+			final String command = lines.get(i);
+			if (command.length() > 0 && kept.add(command)) {
+				commands.add(command);
+			}
+		}
+		Collections.reverse(commands);
+		if (lines.size() >= COMPACTION_RATIO * Math.max(commands.size(), 1)) {
+			replace(commands);
+		}
+		return commands;
+	}
+
+	/**
+	 * Adds the given commands before any already in the history, e.g. when first building it from
+	 * elsewhere while commands are being entered
+	 *
+	 * @param commands the commands, oldest first (required)
+	 * @throws IOException if the history couldn't be read or written
+	 */
+	synchronized void prepend(final List<String> commands) throws IOException {
+		final List<String> all = new ArrayList<String>(commands);
+		all.addAll(readLines());
+		replace(all);
+	}
+
+	private List<String> readLines() throws IOException {
+		final List<String> lines = new ArrayList<String>();
+		if (!file.isFile()) {
+			return lines;
+		}
+		final BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), ENCODING));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				lines.add(line);
+			}
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+		return lines;
+	}
+
+	/**
+	 * Replaces the history with the given commands
+	 *
+	 * @param commands the commands, oldest first (required)
+	 * @throws IOException if the history couldn't be written
+	 */
+	synchronized void replace(final List<String> commands) throws IOException {
+		close();
+		// Written alongside, then moved into place, so that the history isn't lost if this fails
+		final File replacement = new File(file.getPath() + ".new");
+		final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(replacement), ENCODING));
+		try {
+			for (final String command : commands) {
+				writer.write(command + "\n");
+			}
+		} finally {
+			IOUtils.closeQuietly(writer);
+		}
+		if (!replacement.renameTo(file) && !(file.delete() && replacement.renameTo(file))) {
+			throw new IOException("Could not replace '" + file + "' with '" + replacement + "'");
+		}
+	}
+
+	/**
+	 * Appends the given command to the history
+	 *
+	 * @param command the command to append (required)
+	 * @throws IOException if the history couldn't be written
+	 */
+	synchronized void append(final String command) throws IOException {
+		Assert.notNull(command, "Command required");
+		if (out == null) {
+			out = new OutputStreamWriter(new FileOutputStream(file, true), ENCODING);
+		}
+		out.write(command + "\n");
+		out.flush();
+	}
+
+	/**
+	 * Closes the history file until it's next appended to
+	 */
+	synchronized void close() {
+		IOUtils.closeQuietly(out);
+		out = null;
+	}
+}
@@ -0,0 +1,106 @@
+package org.springframework.roo.shell.jline;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import jline.History;
+
+/**
+ * A JLine {@link History} whose reverse search (CTRL+R) uses a {@link HistoryIndex}, and whose
+ * commands are kept in a {@link HistoryStore} from one session to the next.
+ *
+ * <p>
+ * The commands in the index are always the same as those in JLine's own list, so that positions
+ * found in the index can be used by JLine.
+ */
+final class IndexedHistory extends History {
+
+	// Fields
+	private final HistoryIndex index = new HistoryIndex();
+	private final HistoryStore store;
+
+	/**
+	 * Constructor
+	 *
+	 * @param store the store in which to keep the commands entered (required)
+	 * @param maxSize the maximum number of commands to hold
+	 */
+	IndexedHistory(final HistoryStore store, final int maxSize) {
+		this.store = store;
+		setMaxSize(maxSize);
+	}
+
+	@Override
+	public synchronized void addToHistory(final String command) {
+		if (add(command)) {
+			try {
+				store.append(command);
+			} catch (IOException ignored) {}
+		}
+	}
+
+	/**
+	 * Adds the given command, unless it repeats the last one (as JLine does)
+	 *
+	 * @return whether it was added
+	 */
+	private boolean add(final String command) {
+		if (index.size() > 0 && command.equals(index.get(index.size() - 1))) {
+			return false;
+		}
+		super.addToHistory(command);
+		while (index.size() >= size()) {
+			// JLine has removed the oldest command to make room
+			index.removeOldest();
+		}
+		index.add(command);
+		return true;
+	}
+
+	/**
+	 * Adds the given commands before any already in this history, e.g. once they've been loaded from
+	 * the store; they aren't stored again, and any that have been entered since are left out
+	 *
+	 * @param commands the commands to add, oldest first (required)
+	 */
+	synchronized void addOlder(final List<String> commands) {
+		@SuppressWarnings("unchecked")
+		final List<String> entered = new ArrayList<String>(getHistoryList());
+		final Set<String> enteredSet = new HashSet<String>(entered);
+		clear();
+		for (final String command : commands) {
+			if (!enteredSet.contains(command)) {
+				add(command);
+			}
+		}
+		for (final String command : entered) {
+			add(command);
+		}
+		moveToEnd();
+	}
+
+	@Override
+	public synchronized void clear() {
+		super.clear();
+		index.clear();
+	}
+
+	@Override
+	public synchronized int searchBackwards(final String searchTerm, final int startIndex) {
+		return index.searchBackwards(searchTerm, startIndex);
+	}
+
+	/**
+	 * Returns the distinct commands in this history that start with the given text
+	 *
+	 * @param prefix the text with which they start (required)
+	 * @param max the maximum number of commands to return
+	 * @return the commands, most recent first
+	 */
+	synchronized List<String> getCommandsStartingWith(final String prefix, final int max) {
+		return index.getCommandsStartingWith(prefix, max);
+	}
+}
@@ -2,6 +2,13 @@ package org.springframework.roo.shell.jline;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Formatter;
 import java.util.logging.Handler;
 import java.util.logging.Level;
@@ -21,6 +28,27 @@ import org.springframework.roo.support.util.StringUtils;
 /**
  * JDK logging {@link Handler} that emits log messages to a JLine {@link ConsoleReader}.
  *
+ * <p>
+ * Messages published within the same short frame are displayed together, with a single redraw of
+ * the prompt, so that commands logging many lines don't spend their time repainting the terminal.
+ * {@link #flush()} displays those waiting straight away.
+ *
+ * <p>
+ * Unless <code>benson.output.async</code> is <code>false</code>, messages are displayed by a
+ * thread of this handler's own, which is handed them through a bounded queue, so that threads
+ * logging them don't wait for the terminal. What happens when the queue is full depends on
+ * <code>benson.output.overflow</code>: "block" (the default) waits for room, "dropFine" discards
+ * messages below {@link Level#INFO}, and "summarise" discards messages below {@link Level#WARNING}
+ * but displays how many were discarded. {@link #flush()} waits until every message published
+ * before it has been displayed, and {@link #close()} until that thread has displayed them all and
+ * ended; so does interrupting it. Otherwise, or once closed, each message is displayed by the
+ * thread logging it, as soon as it's published.
+ *
+ * <p>
+ * Besides a message that repeats the one immediately before it, a message that's repeated many
+ * times in quick succession, even among others, is displayed only once in a while, along with how
+ * often it was repeated meanwhile (see {@link RepeatCollapser}).
+ *
  * @author Ben Alex
  * @since 1.0
  */
@@ -28,16 +56,30 @@ public class JLineLogHandler extends Handler {
 
 	// Constants
 	private static final boolean BRIGHT_COLORS = Boolean.getBoolean("roo.bright");
+	private static final long FRAME_MILLIS = Long.getLong("benson.output.frameMillis", 20); // how long messages are collected to be displayed together
+	private static final boolean ASYNC = Boolean.valueOf(System.getProperty("benson.output.async", "true"));
+	private static final int QUEUE_CAPACITY = Integer.getInteger("benson.output.queueCapacity", 4096);
+	private static final Overflow OVERFLOW = Overflow.forName(System.getProperty("benson.output.overflow"));
+	private static final Object STOP = new Object(); // tells the writer thread to end
 
 	// Fields
 	private ConsoleReader reader;
 	private ShellPromptAccessor shellPromptAccessor;
 	private static ThreadLocal<Boolean> redrawProhibit = new ThreadLocal<Boolean>();
-	private static String lastMessage;
+	private static volatile String lastMessage;
 	private static boolean includeThreadName = false;
 	private boolean ansiSupported;
 	private String userInterfaceThreadName;
 	private static boolean suppressDuplicateMessages = true;
+	private volatile Runnable outputListener;
+	private final StringBuilder pending = new StringBuilder(); // the messages published in the current frame
+	private boolean pendingRedraw; // whether to redraw the prompt after them
+	private long frameStartedAt;
+	private final BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(QUEUE_CAPACITY); // messages and flush barriers
+	private final AtomicInteger discarded = new AtomicInteger(); // the messages discarded since the last summary
+	private volatile Thread writer;
+	private volatile boolean closed; // whether messages are displayed without the writer thread
+	private final RepeatCollapser repeatCollapser = new RepeatCollapser(); // guarded by this handler's lock, like pending
 
 	public JLineLogHandler(final ConsoleReader reader, final ShellPromptAccessor shellPromptAccessor) {
 		Assert.notNull(reader, "Console reader required");
@@ -47,35 +89,89 @@ public class JLineLogHandler extends Handler {
 		this.userInterfaceThreadName = Thread.currentThread().getName();
 		this.ansiSupported = reader.getTerminal().isANSISupported();
 
-		setFormatter(new Formatter() {
-			@Override
-			public String format(final LogRecord record) {
-				StringBuffer sb = new StringBuffer();
-				if (record.getMessage() != null) {
-					sb.append(record.getMessage()).append(StringUtils.LINE_SEPARATOR);
+		setFormatter(new MessageFormatter());
+	}
+
+	/**
+	 * Displays any messages waiting for the end of the current frame, e.g. before the prompt is
+	 * displayed, waiting until they have been
+	 */
+	@Override
+	public void flush() {
+		final Thread writer = this.writer;
+		if (writer == null || closed || Thread.currentThread() == writer) {
+			synchronized (this) {
+				if (writer == null || closed) {
+					addSummaries();
 				}
-				if (record.getThrown() != null) {
-					PrintWriter pw = null;
-					try {
-						StringWriter sw = new StringWriter();
-						pw = new PrintWriter(sw);
-						record.getThrown().printStackTrace(pw);
-						sb.append(sw.toString());
-					} catch (Exception ex) {
-					} finally {
-						IOUtils.closeQuietly(pw);
-					}
+				display();
+			}
+			return;
+		}
+		final CountDownLatch displayed = new CountDownLatch(1);
+		boolean interrupted = false;
+		while (true) {
+			try {
+				queue.put(displayed);
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		while (true) {
+			try {
+				if (displayed.await(1, TimeUnit.SECONDS)) {
+					break;
 				}
-				return sb.toString();
+				if (!writer.isAlive()) {
+					// It ended before reaching the barrier
+					drainQueue();
+				}
+			} catch (InterruptedException e) {
+				interrupted = true;
 			}
-		});
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
 	}
 
+	/**
+	 * Displays the messages published so far and ends the writer thread, waiting until it has; any
+	 * messages published afterwards are displayed by the threads logging them
+	 */
 	@Override
-	public void flush() {}
-
-	@Override
-	public void close() throws SecurityException {}
+	public void close() throws SecurityException {
+		final Thread writer;
+		synchronized (this) {
+			closed = true;
+			writer = this.writer;
+		}
+		if (writer != null && writer.isAlive() && Thread.currentThread() != writer) {
+			boolean interrupted = false;
+			while (true) {
+				try {
+					queue.put(STOP);
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			while (true) {
+				try {
+					writer.join();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		// Anything published while it was ending
+		drainQueue();
+	}
 
 	public static void prohibitRedraw() {
 		redrawProhibit.set(true);
@@ -91,6 +187,7 @@ public class JLineLogHandler extends Handler {
 
 	public static void resetMessageTracking() {
 		lastMessage = null; // see ROO-251
+		RepeatCollapser.forgetRecentMessages();
 	}
 
 	public static boolean isSuppressDuplicateMessages() {
@@ -101,16 +198,202 @@ public class JLineLogHandler extends Handler {
 		JLineLogHandler.suppressDuplicateMessages = suppressDuplicateMessages;
 	}
 
+	/**
+	 * Sets what to notify once a message has been displayed, e.g. so that anything scrolled away can
+	 * be redrawn
+	 *
+	 * @param outputListener can be <code>null</code> for none
+	 */
+	void setOutputListener(final Runnable outputListener) {
+		this.outputListener = outputListener;
+	}
+
 	@Override
 	public void publish(final LogRecord record) {
+		if (!isLoggable(record)) {
+			return;
+		}
 		try {
-			// Avoid repeating the same message that displayed immediately before the current message (ROO-30, ROO-1873)
-			String toDisplay = toDisplay(record);
-			if (toDisplay.equals(lastMessage) && suppressDuplicateMessages) {
+			final Message message = new Message(record, toDisplay(record), redrawProhibit.get() == null);
+			if (!ASYNC || closed) {
+				synchronized (this) {
+					addSummaries();
+					append(message);
+					display();
+				}
+				return;
+			}
+			if (writer == null) {
+				startWriter();
+			}
+			if (queue.offer(message)) {
+				return;
+			}
+			if (OVERFLOW.discards(record.getLevel())) {
+				discarded.incrementAndGet();
 				return;
 			}
-			lastMessage = toDisplay;
+			try {
+				queue.put(message);
+			} catch (InterruptedException e) {
+				discarded.incrementAndGet();
+				Thread.currentThread().interrupt();
+			}
+		} catch (Exception e) {
+			reportError("Could not publish log message", e, Level.SEVERE.intValue());
+		}
+	}
+
+	private synchronized void startWriter() {
+		if (writer != null || closed) {
+			return;
+		}
+		final Thread thread = new Thread(new Runnable() {
+			public void run() {
+				write();
+			}
+		}, "Spring Roo JLine Log Output");
+		thread.setDaemon(true);
+		thread.start();
+		writer = thread;
+	}
+
+	/**
+	 * Displays what's published, a frame at a time, until this handler is closed or the thread is
+	 * interrupted
+	 */
+	private void write() {
+		final List<Object> batch = new ArrayList<Object>();
+		try {
+			while (true) {
+				// Wake at the end of the frame, or when a message's repeats are to be summarised
+				final long wakeAt;
+				synchronized (this) {
+					wakeAt = Math.min(pending.length() == 0 ? Long.MAX_VALUE : frameStartedAt + FRAME_MILLIS, repeatCollapser.getNextSummaryTime());
+				}
+				final Object first;
+				if (wakeAt == Long.MAX_VALUE) {
+					first = queue.take();
+				} else {
+					first = queue.poll(wakeAt - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+				}
+				synchronized (this) {
+					addSummaries();
+					if (first != null) {
+						batch.add(first);
+						queue.drainTo(batch);
+					}
+					final boolean stop = handle(batch);
+					batch.clear();
+					if (stop) {
+						display();
+						return;
+					}
+					if (first == null || System.currentTimeMillis() >= frameStartedAt + FRAME_MILLIS) {
+						display();
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			closed = true;
+			drainQueue();
+		}
+	}
 
+	/**
+	 * Displays everything waiting in the queue, e.g. once the writer thread has ended
+	 */
+	private synchronized void drainQueue() {
+		final List<Object> rest = new ArrayList<Object>();
+		queue.drainTo(rest);
+		addSummaries();
+		handle(rest);
+		display();
+	}
+
+	/**
+	 * Adds the given messages to the current frame and releases the given flush barriers; the caller
+	 * must hold this handler's lock
+	 *
+	 * @param batch the messages, flush barriers and stop markers taken from the queue
+	 * @return whether the batch includes a stop marker
+	 */
+	private boolean handle(final List<Object> batch) {
+		boolean stop = false;
+		for (final Object item : batch) {
+			if (item == STOP) {
+				stop = true;
+			} else if (item instanceof CountDownLatch) {
+				// A flush barrier
+				display();
+				((CountDownLatch) item).countDown();
+			} else {
+				append((Message) item);
+			}
+		}
+		final int count = discarded.getAndSet(0);
+		if (count > 0 && OVERFLOW == Overflow.SUMMARISE) {
+			add("[" + count + " messages not displayed while the console was busy]" + StringUtils.LINE_SEPARATOR, pendingRedraw);
+		}
+		return stop;
+	}
+
+	/**
+	 * Indicates whether the given message should be left out because it repeats the one displayed
+	 * immediately before it (ROO-30, ROO-1873); if not, it's recorded as the last one displayed
+	 *
+	 * @param message the message about to be displayed (required)
+	 * @return see above
+	 */
+	static boolean isRepeat(final String message) {
+		if (message.equals(lastMessage) && suppressDuplicateMessages) {
+			return true;
+		}
+		lastMessage = message;
+		return false;
+	}
+
+	/**
+	 * Adds the given message to the current frame, unless it repeats the last one or is being
+	 * repeated too often; the caller must hold this handler's lock
+	 */
+	private void append(final Message message) {
+		if (isRepeat(message.text)) {
+			return;
+		}
+		if (suppressDuplicateMessages && repeatCollapser.isCollapsed(message.record, message.text, System.currentTimeMillis())) {
+			return;
+		}
+		add(message.text, message.redraw);
+	}
+
+	/**
+	 * Adds how often any messages have been repeated, for those whose repeats are due to be
+	 * summarised
+	 */
+	private void addSummaries() {
+		for (final String summary : repeatCollapser.getSummaries(System.currentTimeMillis())) {
+			add(summary, pendingRedraw);
+		}
+	}
+
+	private void add(final String text, final boolean redraw) {
+		if (pending.length() == 0) {
+			frameStartedAt = System.currentTimeMillis();
+		}
+		pending.append(text);
+		pendingRedraw = redraw;
+	}
+
+	/**
+	 * Displays the messages published in the current frame, in one write; the caller must hold this
+	 * handler's lock
+	 */
+	private void display() {
+		if (pending.length() == 0) {
+			return;
+		}
+		try {
 			StringBuffer buffer = reader.getCursorBuffer().getBuffer();
 			int cursor = reader.getCursorBuffer().cursor;
 			if (reader.getCursorBuffer().length() > 0) {
@@ -132,16 +415,21 @@ public class JLineLogHandler extends Handler {
 			reader.getCursorBuffer().setBuffer(buffer);
 			reader.getCursorBuffer().cursor = cursor;
 
-			reader.printString(toDisplay);
+			reader.printString(pending.toString());
 
-			Boolean prohibitingRedraw = redrawProhibit.get();
-			if (prohibitingRedraw == null) {
+			if (pendingRedraw) {
 				reader.redrawLine();
 			}
 
 			reader.flushConsole();
+
+			if (outputListener != null) {
+				outputListener.run();
+			}
 		} catch (Exception e) {
 			reportError("Could not publish log message", e, Level.SEVERE.intValue());
+		} finally {
+			pending.setLength(0);
 		}
 	}
 
@@ -212,4 +500,82 @@ public class JLineLogHandler extends Handler {
 			}
 		};
 	}
+
+	/**
+	 * A message to display.
+	 */
+	private static class Message {
+		final LogRecord record;
+		final String text;
+		final boolean redraw; // whether to redraw the prompt after it
+
+		Message(final LogRecord record, final String text, final boolean redraw) {
+			this.record = record;
+			this.text = text;
+			this.redraw = redraw;
+		}
+	}
+
+	/**
+	 * What to do with a message when too many are waiting to be displayed.
+	 */
+	enum Overflow {
+		/** Wait for room */
+		BLOCK(Level.ALL),
+		/** Discard messages below INFO */
+		DROP_FINE(Level.INFO),
+		/** Discard messages below WARNING, displaying how many were */
+		SUMMARISE(Level.WARNING);
+
+		private final Level lowestKept;
+
+		private Overflow(final Level lowestKept) {
+			this.lowestKept = lowestKept;
+		}
+
+		boolean discards(final Level level) {
+			return level.intValue() < lowestKept.intValue();
+		}
+
+		/**
+		 * Returns the policy with the given name, e.g. "dropFine" or "drop_fine"
+		 *
+		 * @return {@link #BLOCK} if the name isn't recognised
+		 */
+		static Overflow forName(final String name) {
+			for (final Overflow overflow : values()) {
+				if (overflow.name().replace("_", "").equalsIgnoreCase(String.valueOf(name).replace("_", ""))) {
+					return overflow;
+				}
+			}
+			return BLOCK;
+		}
+	}
+
+	/**
+	 * Formats a record as its message, followed by the stack trace of any exception.
+	 */
+	static class MessageFormatter extends Formatter {
+
+		@Override
+		public String format(final LogRecord record) {
+			StringBuffer sb = new StringBuffer();
+			if (record.getMessage() != null) {
+				sb.append(record.getMessage()).append(StringUtils.LINE_SEPARATOR);
+			}
+			if (record.getThrown() != null) {
+				PrintWriter pw = null;
+				try {
+					StringWriter sw = new StringWriter();
+					pw = new PrintWriter(sw);
+					record.getThrown().printStackTrace(pw);
+					sb.append(sw.toString());
+				} catch (Exception ex) {
+				} finally {
+					IOUtils.closeQuietly(pw);
+				}
+			}
+			return sb.toString();
+		}
+	}
 }
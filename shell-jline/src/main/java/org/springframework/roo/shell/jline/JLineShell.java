@@ -1,20 +1,22 @@
 package org.springframework.roo.shell.jline;
 
+import static org.springframework.roo.support.util.StringUtils.LINE_SEPARATOR;
+
 import java.io.File;
 import java.io.FileDescriptor;
 import java.io.FileInputStream;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.BitSet;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -22,19 +24,21 @@ import java.util.logging.Logger;
 import jline.ANSIBuffer;
 import jline.ANSIBuffer.ANSICodes;
 import jline.ConsoleReader;
+import jline.UnsupportedTerminal;
 import jline.WindowsTerminal;
 
 import org.springframework.roo.shell.AbstractShell;
+import org.springframework.roo.shell.CliCommand;
+import org.springframework.roo.shell.CliOption;
 import org.springframework.roo.shell.CommandMarker;
 import org.springframework.roo.shell.ExitShellRequest;
+import org.springframework.roo.shell.ParseResult;
 import org.springframework.roo.shell.Shell;
 import org.springframework.roo.shell.event.ShellStatus;
 import org.springframework.roo.shell.event.ShellStatus.Status;
 import org.springframework.roo.shell.event.ShellStatusListener;
 import org.springframework.roo.support.util.Assert;
 import org.springframework.roo.support.util.ClassUtils;
-import org.springframework.roo.support.util.FileCopyUtils;
-import org.springframework.roo.support.util.IOUtils;
 import org.springframework.roo.support.util.OsUtils;
 import org.springframework.roo.support.util.StringUtils;
 
@@ -61,22 +65,44 @@ public abstract class JLineShell extends AbstractShell implements CommandMarker,
 	private static final boolean APPLE_TERMINAL = Boolean.getBoolean("is.apple.terminal");
 	private static final char ESCAPE = 27;
 	private static final String BEL = "\007";
+	private static final long FLASH_FRAME_MILLIS = Long.getLong("benson.flash.frameMillis", 50); // the least time between redraws of the flash messages
+	private static final String PLAIN_OUTPUT_PROPERTY = "benson.output.plain";
+	private static final String HISTORY_FILE_NAME = "benson.history";
+	private static final String HISTORY_FILE_PROPERTY = "benson.history.file";
+	private static final String HISTORY_SIZE_PROPERTY = "benson.history.maxEntries";
+	private static final int LOG_FLUSH_BYTES = Integer.getInteger("benson.log.flushBytes", 8192);
+	private static final long LOG_FLUSH_MILLIS = Long.getLong("benson.log.flushMillis", 200); // how soon "tail -f" sees each command
+	private static final int LOG_QUEUE_CAPACITY = Integer.getInteger("benson.log.queueCapacity", 1024);
+	private static final long LOG_MAX_BYTES = Long.getLong("benson.log.maxBytes", 10 * 1024 * 1024);
+	private static final long LOG_MAX_AGE_HOURS = Long.getLong("benson.log.maxAgeHours", 7 * 24);
+	private static final int LOG_MAX_SEGMENTS = Integer.getInteger("benson.log.maxSegments", 10);
 
 	// Fields
 	private ConsoleReader reader;
+	private Handler logHandler;
+	private boolean plainOutput; // whether there's no terminal, so output is written as plain text
 	private boolean developmentMode = false;
-	private FileWriter fileLog;
+	private LogSegments logSegments;
+	private CommandLogWriter fileLog;
+	private HistoryStore historyStore;
+	private IndexedHistory history;
 	private final DateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
 	protected ShellStatusListener statusListener; // ROO-836
 	/** key: slot name, value: flashInfo instance */
 	private final Map<String, FlashInfo> flashInfoMap = new HashMap<String, FlashInfo>();
+	/** the row numbers of the flash messages */
+	private final BitSet flashRows = new BitSet();
 	/** key: row number, value: eraseLineFromPosition */
 	private final Map<Integer, Integer> rowErasureMap = new HashMap<Integer, Integer>();
 	private boolean shutdownHookFired = false; // ROO-1599
 
 	public void run() {
+		plainOutput = isOutputPlain();
 		try {
-			if (JANSI_AVAILABLE && OsUtils.isWindows()) {
+			if (plainOutput) {
+				// There's no terminal to control, so don't try to
+				reader = new ConsoleReader(new FileInputStream(FileDescriptor.in), new PrintWriter(new OutputStreamWriter(System.out)), null, new UnsupportedTerminal());
+			} else if (JANSI_AVAILABLE && OsUtils.isWindows()) {
 				try {
 					reader = createAnsiWindowsReader();
 				} catch (Exception e) {
@@ -93,11 +119,11 @@ public abstract class JLineShell extends AbstractShell implements CommandMarker,
 
 		setPromptPath(null);
 
-		JLineLogHandler handler = new JLineLogHandler(reader, this);
+		logHandler = plainOutput ? new PlainLogHandler(System.out) : new JLineLogHandler(reader, this);
 		JLineLogHandler.prohibitRedraw(); // Affects this thread only
 		Logger mainLogger = Logger.getLogger("");
 		removeHandlers(mainLogger);
-		mainLogger.addHandler(handler);
+		mainLogger.addHandler(logHandler);
 
 		reader.addCompletor(new JLineCompletorAdapter(getParser()));
 
@@ -110,17 +136,10 @@ public abstract class JLineShell extends AbstractShell implements CommandMarker,
 
 		openFileLogIfPossible();
 
-		// Try to build previous command history from the project's log
-		try {
-			String logFileContents = FileCopyUtils.copyToString(new File(LOG_FILE_NAME));
-			String[] logEntries = logFileContents.split(StringUtils.LINE_SEPARATOR);
-			// LIFO
-			for (String logEntry : logEntries) {
-				if (!logEntry.startsWith("//")) {
-					reader.getHistory().addToHistory(logEntry);
-				}
-			}
-		} catch (IOException ignored) {}
+		// The history is kept in its own file; before there was one, it's built from the project's log
+		// (nothing's been logged since it was opened, other than perhaps a comment)
+		final File logFile = new File(LOG_FILE_NAME);
+		loadHistory(logFile, logFile.length());
 
 		flashMessageRenderer();
 
@@ -155,6 +174,7 @@ public abstract class JLineShell extends AbstractShell implements CommandMarker,
 				executeCommand("quit"); // ROO-839
 				exitShellRequest = success ? ExitShellRequest.NORMAL_EXIT : ExitShellRequest.FATAL_EXIT;
 			}
+			logHandler.flush();
 			setShellStatus(Status.SHUTTING_DOWN);
 		} else {
 			// Normal RPEL processing
@@ -162,6 +182,43 @@ public abstract class JLineShell extends AbstractShell implements CommandMarker,
 		}
 	}
 
+	/**
+	 * Installs the indexed history, then loads the commands kept from earlier sessions on a separate
+	 * thread so as not to delay the prompt
+	 */
+	private void loadHistory(final File logFile, final long logLength) {
+		final int maxEntries = Integer.getInteger(HISTORY_SIZE_PROPERTY, reader.getHistory().getMaxSize());
+		historyStore = new HistoryStore(new File(System.getProperty(HISTORY_FILE_PROPERTY, HISTORY_FILE_NAME)), maxEntries);
+		history = new IndexedHistory(historyStore, maxEntries);
+		reader.setHistory(history);
+		// Checked before the prompt appears, as the first command entered creates the file
+		final boolean migrating = !historyStore.exists();
+		final Thread loader = new Thread(new Runnable() {
+			public void run() {
+				try {
+					if (migrating) {
+						historyStore.prepend(HistoryLoader.readLastCommands(logFile, logLength, logSegments.getSegments(), maxEntries));
+					}
+					// Any commands entered in the meantime are more recent, so go after those loaded
+					history.addOlder(historyStore.load());
+				} catch (IOException ignored) {}
+			}
+		}, "Spring Roo JLine History Loader");
+		loader.setDaemon(true);
+		loader.start();
+	}
+
+	@CliCommand(value = "history", help = "Lists the most recent distinct commands entered, optionally only those starting with given text")
+	public String history(
+		@CliOption(key = { "", "startingWith" }, mandatory = false, unspecifiedDefaultValue = "", help = "The text with which the commands start") final String prefix,
+		@CliOption(key = "limit", mandatory = false, unspecifiedDefaultValue = "20", help = "The maximum number of commands to list") final int limit) {
+
+		if (history == null) {
+			return null;
+		}
+		return StringUtils.collectionToDelimitedString(history.getCommandsStartingWith(prefix, limit), LINE_SEPARATOR);
+	}
+
 	public String getStartupNotifications() {
 		return null;
 	}
@@ -203,6 +260,24 @@ public abstract class JLineShell extends AbstractShell implements CommandMarker,
 		reader.setDefaultPrompt(JLineShell.shellPrompt);
 	}
 
+	/**
+	 * Indicates whether to write plain output, i.e. whether the shell isn't attached to a terminal,
+	 * unless the "benson.output.plain" system property says either way
+	 */
+	private static boolean isOutputPlain() {
+		final String plain = System.getProperty(PLAIN_OUTPUT_PROPERTY);
+		if (plain != null) {
+			return Boolean.valueOf(plain);
+		}
+		try {
+			// Java 6 or later, where there's a console only if both input and output are a terminal
+			return System.class.getMethod("console").invoke(null) == null;
+		} catch (Exception e) {
+			// Can't tell, so assume there's a terminal
+			return false;
+		}
+	}
+
 	private ConsoleReader createAnsiWindowsReader() throws Exception {
 		// Get decorated OutputStream that parses ANSI-codes
 		final PrintStream ansiOut = (PrintStream) ClassUtils.forName(ANSI_CONSOLE_CLASSNAME, JLineShell.class.getClassLoader()).getMethod("out").invoke(null);
@@ -232,46 +307,95 @@ public abstract class JLineShell extends AbstractShell implements CommandMarker,
 		if (!reader.getTerminal().isANSISupported()) {
 			return;
 		}
-		// Setup a thread to ensure flash messages are displayed and cleared correctly
+		// Wake the renderer when shutting down, and repaint once anything logged may have scrolled the messages away
+		addShellStatusListener(new ShellStatusListener() {
+			public void onShellStatusChange(final ShellStatus oldStatus, final ShellStatus newStatus) {
+				synchronized (flashInfoMap) {
+					flashInfoMap.notifyAll();
+				}
+			}
+		});
+		if (logHandler instanceof JLineLogHandler) {
+			((JLineLogHandler) logHandler).setOutputListener(new Runnable() {
+				public void run() {
+					repaintFlashMessages();
+				}
+			});
+		}
+		// Setup a thread to ensure flash messages are displayed and cleared correctly, only when they've changed or expired
 		Thread t = new Thread(new Runnable() {
 			public void run() {
-				while (!shellStatus.getStatus().equals(Status.SHUTTING_DOWN) && !shutdownHookFired) {
-					synchronized (flashInfoMap) {
+				long lastFrame = 0;
+				synchronized (flashInfoMap) {
+					while (!shellStatus.getStatus().equals(Status.SHUTTING_DOWN) && !shutdownHookFired) {
 						long now = System.currentTimeMillis();
+						boolean dirty = false;
+						long nextExpiry = Long.MAX_VALUE;
+						for (FlashInfo flashInfo : flashInfoMap.values()) {
+							dirty |= flashInfo.dirty;
+							nextExpiry = Math.min(nextExpiry, flashInfo.flashMessageUntil);
+						}
+						try {
+							if (!dirty && nextExpiry >= now) {
+								// Nothing to do until a message changes or expires
+								flashInfoMap.wait(nextExpiry == Long.MAX_VALUE ? 0 : nextExpiry - now + 1);
+								continue;
+							}
+							if (now < lastFrame + FLASH_FRAME_MILLIS) {
+								// Too soon after the last frame; any other changes meanwhile go in the same one
+								flashInfoMap.wait(lastFrame + FLASH_FRAME_MILLIS - now);
+								continue;
+							}
+						} catch (InterruptedException ignore) {
+							continue;
+						}
 
-						Set<String> toRemove = new HashSet<String>();
-						for (String slot : flashInfoMap.keySet()) {
-							FlashInfo flashInfo = flashInfoMap.get(slot);
-
+						for (Iterator<FlashInfo> iter = flashInfoMap.values().iterator(); iter.hasNext();) {
+							FlashInfo flashInfo = iter.next();
 							if (flashInfo.flashMessageUntil < now) {
 								// Message has expired, so clear it
-								toRemove.add(slot);
 								doAnsiFlash(flashInfo.rowNumber, Level.ALL, "");
-							} else {
-								// The expiration time for this message has not been reached, so preserve it
+								flashRows.clear(flashInfo.rowNumber);
+								iter.remove();
+							} else if (flashInfo.dirty) {
 								doAnsiFlash(flashInfo.rowNumber, flashInfo.flashLevel, flashInfo.flashMessage);
+								flashInfo.dirty = false;
 							}
 						}
-						for (String slot : toRemove) {
-							flashInfoMap.remove(slot);
-						}
-					}
-					try {
-						Thread.sleep(200);
-					} catch (InterruptedException ignore) {
+						lastFrame = now;
 					}
 				}
 			}
 		}, "Spring Roo JLine Flash Message Manager");
+		t.setDaemon(true);
 		t.start();
 	}
 
+	/**
+	 * Has every flash message displayed again in the next frame, e.g. because the console has scrolled
+	 */
+	private void repaintFlashMessages() {
+		synchronized (flashInfoMap) {
+			if (flashInfoMap.isEmpty()) {
+				return;
+			}
+			for (FlashInfo flashInfo : flashInfoMap.values()) {
+				flashInfo.dirty = true;
+			}
+			flashInfoMap.notifyAll();
+		}
+	}
+
 	@Override
 	public void flash(final Level level, final String message, final String slot) {
 		Assert.notNull(level, "Level is required for a flash message");
 		Assert.notNull(message, "Message is required for a flash message");
 		Assert.hasText(slot, "Slot name must be specified for a flash message");
 
+		if (plainOutput) {
+			// Flash messages are transient, and would make the output depend on timing
+			return;
+		}
 		if (Shell.WINDOW_TITLE_SLOT.equals(slot)) {
 			if (reader != null && reader.getTerminal().isANSISupported()) {
 				// We can probably update the window title, as requested
@@ -307,20 +431,10 @@ public abstract class JLineShell extends AbstractShell implements CommandMarker,
 			} else {
 				// Display this message displayed until further notice
 				if (flashInfo == null) {
-					// Find a row for this new slot; we basically take the first line number we discover
+					// Find a row for this new slot; we take the first one nobody owns
 					flashInfo = new FlashInfo();
-					flashInfo.rowNumber = Integer.MAX_VALUE;
-					outer: for (int i = 1; i < Integer.MAX_VALUE; i++) {
-						for (FlashInfo existingFlashInfo : flashInfoMap.values()) {
-							if (existingFlashInfo.rowNumber == i) {
-								// Veto, let's try the new candidate row number
-								continue outer;
-							}
-						}
-						// If we got to here, nobody owns this row number, so use it
-						flashInfo.rowNumber = i;
-						break outer;
-					}
+					flashInfo.rowNumber = flashRows.nextClearBit(1);
+					flashRows.set(flashInfo.rowNumber);
 
 					// Store it
 					flashInfoMap.put(slot, flashInfo);
@@ -330,9 +444,10 @@ public abstract class JLineShell extends AbstractShell implements CommandMarker,
 				flashInfo.flashLevel = level;
 				flashInfo.flashMessage = message;
 
-				// Display right now
-				doAnsiFlash(flashInfo.rowNumber, flashInfo.flashLevel, flashInfo.flashMessage);
+				// Displayed by the renderer in its next frame, along with any other messages changed meanwhile
+				flashInfo.dirty = true;
 			}
+			flashInfoMap.notifyAll();
 		}
 	}
 
@@ -396,6 +511,8 @@ public abstract class JLineShell extends AbstractShell implements CommandMarker,
 		String line;
 
 		try {
+			// Display everything logged before each prompt, rather than after it
+			logHandler.flush();
 			while (exitShellRequest == null && ((line = reader.readLine()) != null)) {
 				JLineLogHandler.resetMessageTracking();
 				setShellStatus(Status.USER_INPUT);
@@ -405,6 +522,7 @@ public abstract class JLineShell extends AbstractShell implements CommandMarker,
 				}
 
 				executeCommand(line);
+				logHandler.flush();
 			}
 		} catch (IOException ioe) {
 			throw new IllegalStateException("Shell line reading failure", ioe);
@@ -423,18 +541,31 @@ public abstract class JLineShell extends AbstractShell implements CommandMarker,
 		return this.developmentMode;
 	}
 
-	private void openFileLogIfPossible() {
+	private synchronized void openFileLogIfPossible() {
+		if (logSegments == null) {
+			logSegments = new LogSegments(new File(LOG_FILE_NAME), LOG_MAX_BYTES, TimeUnit.HOURS.toMillis(LOG_MAX_AGE_HOURS), LOG_MAX_SEGMENTS);
+		}
 		try {
-			fileLog = new FileWriter(LOG_FILE_NAME, true);
+			fileLog = new CommandLogWriter(new File(LOG_FILE_NAME), logSegments, LOG_QUEUE_CAPACITY, LOG_FLUSH_BYTES, LOG_FLUSH_MILLIS);
 			// First write, so let's record the date and time of the first user command
-			fileLog.write("// Spring Roo " + versionInfo() + " log opened at " + df.format(new Date()) + "\n");
-			fileLog.flush();
+			fileLog.log("// Spring Roo " + versionInfo() + " log opened at " + df.format(new Date()));
 		} catch (IOException ignoreIt) {
 		}
 	}
 
+	/**
+	 * Writes out everything logged so far and closes the log (we can always reopen it later if needed)
+	 */
+	private synchronized void closeFileLog() {
+		if (fileLog != null) {
+			fileLog.log("// Spring Roo " + versionInfo() + " log closed at " + df.format(new Date()));
+			fileLog.close();
+			fileLog = null;
+		}
+	}
+
 	@Override
-	protected void logCommandToOutput(final String processedLine) {
+	protected synchronized void logCommandToOutput(final String processedLine) {
 		if (fileLog == null) {
 			openFileLogIfPossible();
 			if (fileLog == null) {
@@ -442,16 +573,11 @@ public abstract class JLineShell extends AbstractShell implements CommandMarker,
 				return;
 			}
 		}
-		try {
-			fileLog.write(processedLine + "\n"); // Unix line endings only from Roo
-			fileLog.flush(); // So tail -f will show it's working
-			if (getExitShellRequest() != null) {
-				// Shutting down, so close our file (we can always reopen it later if needed)
-				fileLog.write("// Spring Roo " + versionInfo() + " log closed at " + df.format(new Date()) + "\n");
-				IOUtils.closeQuietly(fileLog);
-				fileLog = null;
-			}
-		} catch (IOException ignoreIt) {
+		// Written in the background, and soon enough that tail -f will show it's working
+		fileLog.log(processedLine);
+		if (getExitShellRequest() != null) {
+			// Shutting down, so close our file
+			closeFileLog();
 		}
 	}
 
@@ -473,6 +599,15 @@ public abstract class JLineShell extends AbstractShell implements CommandMarker,
 		return rooHome;
 	}
 
+	@Override
+	protected void setShellStatus(final Status shellStatus, final String msg, final ParseResult parseResult) {
+		if (logHandler != null && (shellStatus == Status.EXECUTION_SUCCESS || shellStatus == Status.EXECUTION_FAILED)) {
+			// Only report the command as finished once its output is on screen
+			logHandler.flush();
+		}
+		super.setShellStatus(shellStatus, msg, parseResult);
+	}
+
 	/**
 	 * Should be called by a subclass before deactivating the shell.
 	 */
@@ -482,6 +617,15 @@ public abstract class JLineShell extends AbstractShell implements CommandMarker,
 		if (statusListener != null) {
 			removeShellStatusListener(statusListener);
 		}
+		if (logHandler != null) {
+			// Ends any thread of its own, which would otherwise keep this shell's classes loaded
+			Logger.getLogger("").removeHandler(logHandler);
+			logHandler.close();
+		}
+		closeFileLog();
+		if (historyStore != null) {
+			historyStore.close();
+		}
 	}
 
 	private static class FlashInfo {
@@ -489,5 +633,6 @@ public abstract class JLineShell extends AbstractShell implements CommandMarker,
 		long flashMessageUntil;
 		Level flashLevel;
 		int rowNumber;
+		boolean dirty; // whether it's to be displayed in the next frame
 	}
 }
@@ -0,0 +1,210 @@
+package org.springframework.roo.shell.jline;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.GZIPOutputStream;
+
+import org.springframework.roo.support.util.Assert;
+import org.springframework.roo.support.util.IOUtils;
+import org.springframework.roo.support.util.StringUtils;
+
+/**
+ * The segments into which a log is rotated once it reaches a given size or age.
+ *
+ * <p>
+ * The log itself is always the newest segment. When it's rotated, it's compressed into
+ * <code>&lt;log&gt;.&lt;number&gt;.gz</code>, numbered in the order written, and a new log is
+ * started; only a given number of compressed segments are kept. A manifest,
+ * <code>&lt;log&gt;.manifest</code>, lists the compressed segments and the period each covers, so
+ * that readers can find the most recent ones without looking at the others.
+ */
+final class LogSegments {
+
+	// Constants
+	private static final String ACTIVE_SINCE = "active.since";
+	private static final String SEGMENTS = "segments";
+	private static final String SEGMENT = "segment.";
+	private static final String FROM = ".from";
+	private static final String TO = ".to";
+	private static final int BUFFER_SIZE = 8192;
+
+	// Fields
+	private final File log;
+	private final File manifestFile;
+	private final long maxBytes;
+	private final long maxAgeMillis;
+	private final int maxSegments;
+	private final Properties manifest = new Properties();
+
+	/**
+	 * Constructor
+	 *
+	 * @param log the log file (required)
+	 * @param maxBytes the size at which the log is rotated; zero or less for no limit
+	 * @param maxAgeMillis the age at which the log is rotated, in milliseconds; zero or less for no limit
+	 * @param maxSegments the number of compressed segments to keep
+	 */
+	LogSegments(final File log, final long maxBytes, final long maxAgeMillis, final int maxSegments) {
+		Assert.notNull(log, "Log file required");
+		this.log = log;
+		this.manifestFile = new File(log.getPath() + ".manifest");
+		this.maxBytes = maxBytes;
+		this.maxAgeMillis = maxAgeMillis;
+		this.maxSegments = maxSegments;
+		if (manifestFile.isFile()) {
+			try {
+				final InputStream in = new FileInputStream(manifestFile);
+				try {
+					manifest.load(in);
+				} finally {
+					IOUtils.closeQuietly(in);
+				}
+			} catch (IOException ignored) {
+				// Start again; older segments are no longer listed, but are still there
+				manifest.clear();
+			}
+		}
+	}
+
+	/**
+	 * Prepares the log for writing, rotating it first if it has already reached its size or age
+	 *
+	 * @throws IOException if the log couldn't be rotated
+	 */
+	synchronized void open() throws IOException {
+		if (log.length() == 0 || manifest.getProperty(ACTIVE_SINCE) == null) {
+			// The age of a log written before it was rotated isn't known, so it starts now
+			manifest.setProperty(ACTIVE_SINCE, String.valueOf(System.currentTimeMillis()));
+			writeManifest();
+		} else if (isDue(log.length())) {
+			rotate();
+		}
+	}
+
+	/**
+	 * Indicates whether the log should be rotated
+	 *
+	 * @param length the log's current length
+	 * @return see above
+	 */
+	synchronized boolean isDue(final long length) {
+		if (length == 0) {
+			return false;
+		}
+		if (maxBytes > 0 && length >= maxBytes) {
+			return true;
+		}
+		return maxAgeMillis > 0 && System.currentTimeMillis() - getActiveSince() >= maxAgeMillis;
+	}
+
+	/**
+	 * Compresses the log into a new segment, removing the oldest segments beyond the number kept; the
+	 * log must not be open for writing
+	 *
+	 * @throws IOException if the log couldn't be rotated, in which case it's left as it was
+	 */
+	synchronized void rotate() throws IOException {
+		final List<Integer> numbers = getSegmentNumbers();
+		final int number = numbers.isEmpty() ? 1 : numbers.get(numbers.size() - 1) + 1;
+		final File segment = getSegmentFile(number);
+		compress(log, segment);
+		if (!log.delete()) {
+			segment.delete();
+			throw new IOException("Could not delete '" + log + "' once compressed into '" + segment + "'");
+		}
+
+		final long now = System.currentTimeMillis();
+		manifest.setProperty(SEGMENT + number + FROM, String.valueOf(getActiveSince()));
+		manifest.setProperty(SEGMENT + number + TO, String.valueOf(now));
+		manifest.setProperty(ACTIVE_SINCE, String.valueOf(now));
+		numbers.add(number);
+		while (numbers.size() > Math.max(maxSegments, 0)) {
+			final int oldest = numbers.remove(0);
+			getSegmentFile(oldest).delete();
+			manifest.remove(SEGMENT + oldest + FROM);
+			manifest.remove(SEGMENT + oldest + TO);
+		}
+		manifest.setProperty(SEGMENTS, StringUtils.collectionToCommaDelimitedString(numbers));
+		writeManifest();
+	}
+
+	/**
+	 * Returns the compressed segments of the log, newest first, as listed in the manifest
+	 *
+	 * @return the segments that still exist
+	 */
+	synchronized List<File> getSegments() {
+		final List<File> segments = new ArrayList<File>();
+		for (final Integer number : getSegmentNumbers()) {
+			final File segment = getSegmentFile(number);
+			if (segment.isFile()) {
+				segments.add(segment);
+			}
+		}
+		Collections.reverse(segments);
+		return segments;
+	}
+
+	private List<Integer> getSegmentNumbers() {
+		final List<Integer> numbers = new ArrayList<Integer>();
+		for (final String number : StringUtils.commaDelimitedListToStringArray(manifest.getProperty(SEGMENTS, ""))) {
+			try {
+				numbers.add(Integer.valueOf(number.trim()));
+			} catch (NumberFormatException ignored) {}
+		}
+		return numbers;
+	}
+
+	private File getSegmentFile(final int number) {
+		return new File(log.getPath() + "." + number + ".gz");
+	}
+
+	private long getActiveSince() {
+		try {
+			return Long.parseLong(manifest.getProperty(ACTIVE_SINCE));
+		} catch (NumberFormatException e) {
+			return System.currentTimeMillis();
+		}
+	}
+
+	private void writeManifest() throws IOException {
+		final OutputStream out = new FileOutputStream(manifestFile);
+		try {
+			manifest.store(out, "Segments of " + log.getName() + ", oldest first");
+		} finally {
+			IOUtils.closeQuietly(out);
+		}
+	}
+
+	private static void compress(final File source, final File target) throws IOException {
+		final InputStream in = new FileInputStream(source);
+		try {
+			final OutputStream out = new GZIPOutputStream(new FileOutputStream(target), BUFFER_SIZE);
+			boolean compressed = false;
+			try {
+				final byte[] buffer = new byte[BUFFER_SIZE];
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					out.write(buffer, 0, read);
+				}
+				out.close();
+				compressed = true;
+			} finally {
+				if (!compressed) {
+					IOUtils.closeQuietly(out);
+					target.delete();
+				}
+			}
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package org.springframework.roo.shell.jline;
+
+import java.io.BufferedOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import org.springframework.roo.support.util.Assert;
+
+/**
+ * JDK logging {@link Handler} that writes log messages as plain text to a stream, for when the
+ * shell's output isn't a terminal (e.g. when it's piped or redirected by a build server).
+ *
+ * <p>
+ * Messages are formatted as by {@link JLineLogHandler}, but without colours, and without any
+ * cursor movement or redrawing of the prompt, so the output is the same from one run to the next.
+ * They're buffered, and only written once the buffer is full or {@link #flush()} is called, e.g.
+ * at the end of each command. A message that repeats the one before it is left out as by
+ * {@link JLineLogHandler}, but messages recurring among others aren't collapsed, as that depends on
+ * timing.
+ */
+final class PlainLogHandler extends Handler {
+
+	// Constants
+	private static final int BUFFER_SIZE = 8192;
+
+	// Fields
+	private final PrintStream out;
+
+	/**
+	 * Constructor
+	 *
+	 * @param out the stream to which to write (required)
+	 */
+	PlainLogHandler(final OutputStream out) {
+		Assert.notNull(out, "Output stream required");
+		this.out = new PrintStream(new BufferedOutputStream(out, BUFFER_SIZE), false);
+		setFormatter(new JLineLogHandler.MessageFormatter());
+	}
+
+	@Override
+	public synchronized void publish(final LogRecord record) {
+		if (!isLoggable(record)) {
+			return;
+		}
+		try {
+			final String message = getFormatter().format(record);
+			if (JLineLogHandler.isRepeat(message)) {
+				return;
+			}
+			out.print(message);
+		} catch (Exception e) {
+			reportError("Could not publish log message", e, Level.SEVERE.intValue());
+		}
+	}
+
+	@Override
+	public synchronized void flush() {
+		out.flush();
+	}
+
+	@Override
+	public void close() throws SecurityException {
+		flush();
+	}
+}
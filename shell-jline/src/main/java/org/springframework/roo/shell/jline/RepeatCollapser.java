@@ -0,0 +1,193 @@
+package org.springframework.roo.shell.jline;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.LogRecord;
+
+import org.springframework.roo.support.util.StringUtils;
+
+/**
+ * Collapses log messages that keep recurring, even when other messages come between them, so that
+ * a noisy logger doesn't flood the console.
+ *
+ * <p>
+ * The most recent distinct messages of each logger are remembered. A message that's displayed
+ * starts a window of time, during which the same message from the same logger is displayed up to
+ * a given number of times; beyond that, it's counted rather than displayed. Once the window ends, a
+ * single line says how many more times it was repeated, and the message is displayed again the
+ * next time it occurs. Messages are only collapsed in this way while they're repeated faster than
+ * that, so that a message that merely recurs from time to time is always displayed.
+ *
+ * <p>
+ * Every instance forgets the messages it has seen when {@link #forgetRecentMessages()} is called,
+ * e.g. as each command starts, so that a command's output is never left out for having been
+ * displayed by an earlier command.
+ *
+ * <p>
+ * Not thread-safe; callers are expected to synchronize.
+ */
+final class RepeatCollapser {
+
+	// Constants
+	private static final long WINDOW_MILLIS = Long.getLong("benson.output.repeatWindowMillis", 5000); // zero or less to display every message
+	private static final int REPEAT_THRESHOLD = Integer.getInteger("benson.output.repeatThreshold", 10);
+	private static final int MESSAGES_PER_LOGGER = Integer.getInteger("benson.output.repeatMessagesPerLogger", 64);
+	private static final int MAX_LABEL_LENGTH = 80;
+	private static final AtomicInteger GENERATION = new AtomicInteger(); // incremented to forget recent messages
+
+	// Fields
+	private final long windowMillis;
+	private final int threshold;
+	private final int messagesPerLogger;
+	private final Map<String, Map<String, Repeats>> recentMessages = new HashMap<String, Map<String, Repeats>>(); // by logger, then message
+	private final List<Repeats> counting = new ArrayList<Repeats>(); // those repeated in their current window
+	private int generation = GENERATION.get(); // when the recent messages were last forgotten
+
+	/**
+	 * Constructor that uses the window, threshold and number of messages given by the
+	 * <code>benson.output.repeatWindowMillis</code>, <code>benson.output.repeatThreshold</code> and
+	 * <code>benson.output.repeatMessagesPerLogger</code> system properties
+	 */
+	RepeatCollapser() {
+		this(WINDOW_MILLIS, REPEAT_THRESHOLD, MESSAGES_PER_LOGGER);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param windowMillis how long a message is collapsed once displayed; zero or less for never
+	 * @param threshold the number of times a message is displayed within its window before it's collapsed
+	 * @param messagesPerLogger how many distinct messages to remember for each logger
+	 */
+	RepeatCollapser(final long windowMillis, final int threshold, final int messagesPerLogger) {
+		this.windowMillis = windowMillis;
+		this.threshold = Math.max(threshold, 1);
+		this.messagesPerLogger = messagesPerLogger;
+	}
+
+	/**
+	 * Makes every instance forget the messages it has seen, so that the next occurrence of each is
+	 * displayed; any repeats already counted are still summarised
+	 */
+	static void forgetRecentMessages() {
+		GENERATION.incrementAndGet();
+	}
+
+	/**
+	 * Indicates whether the given message should be left out because it's being repeated too often;
+	 * if not, it's expected to be displayed
+	 *
+	 * @param record the record being logged (required)
+	 * @param message the message as displayed (required)
+	 * @param now the current time, in milliseconds
+	 * @return see above
+	 */
+	boolean isCollapsed(final LogRecord record, final String message, final long now) {
+		if (windowMillis <= 0) {
+			return false;
+		}
+		final int currentGeneration = GENERATION.get();
+		if (generation != currentGeneration) {
+			generation = currentGeneration;
+			recentMessages.clear();
+		}
+		final String loggerName = String.valueOf(record.getLoggerName());
+		Map<String, Repeats> messages = recentMessages.get(loggerName);
+		if (messages == null) {
+			messages = new LinkedHashMap<String, Repeats>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(final Map.Entry<String, Repeats> eldest) {
+					return size() > messagesPerLogger;
+				}
+			};
+			recentMessages.put(loggerName, messages);
+		}
+		final Repeats repeats = messages.get(message);
+		if (repeats == null || now - repeats.since >= windowMillis) {
+			messages.put(message, new Repeats(getLabel(record, message), now));
+			return false;
+		}
+		if (repeats.displayed < threshold) {
+			repeats.displayed++;
+			return false;
+		}
+		if (repeats.count++ == 0) {
+			counting.add(repeats);
+		}
+		return true;
+	}
+
+	/**
+	 * Returns a line for each message whose window has ended since it was repeated
+	 *
+	 * @param now the current time, in milliseconds
+	 * @return a non-<code>null</code> list of lines, each ending with a line separator
+	 */
+	List<String> getSummaries(final long now) {
+		final List<String> summaries = new ArrayList<String>();
+		for (final Iterator<Repeats> iter = counting.iterator(); iter.hasNext();) {
+			final Repeats repeats = iter.next();
+			if (now - repeats.since >= windowMillis) {
+				summaries.add(repeats.label + " (repeated " + repeats.count + " more times in last " + getWindowText() + ")" + StringUtils.LINE_SEPARATOR);
+				repeats.count = 0;
+				iter.remove();
+			}
+		}
+		return summaries;
+	}
+
+	/**
+	 * Returns when the next summary is due
+	 *
+	 * @return the time in milliseconds, or {@link Long#MAX_VALUE} if none is
+	 */
+	long getNextSummaryTime() {
+		long next = Long.MAX_VALUE;
+		for (final Repeats repeats : counting) {
+			next = Math.min(next, repeats.since + windowMillis);
+		}
+		return next;
+	}
+
+	private String getWindowText() {
+		if (windowMillis % 1000 == 0) {
+			return windowMillis / 1000 + "s";
+		}
+		return windowMillis + "ms";
+	}
+
+	private static String getLabel(final LogRecord record, final String message) {
+		String label = record.getMessage() == null ? message : record.getMessage();
+		final int lineEnd = label.indexOf('\n');
+		if (lineEnd >= 0) {
+			label = label.substring(0, lineEnd);
+		}
+		label = label.trim();
+		if (label.length() > MAX_LABEL_LENGTH) {
+			label = label.substring(0, MAX_LABEL_LENGTH - 3) + "...";
+		}
+		return label;
+	}
+
+	/**
+	 * A message displayed, and the number of times it's been displayed and left out since.
+	 */
+	private static class Repeats {
+		final String label;
+		final long since; // when it was first displayed
+		int displayed = 1;
+		int count;
+
+		Repeats(final String label, final long since) {
+			this.label = label;
+			this.since = since;
+		}
+	}
+}
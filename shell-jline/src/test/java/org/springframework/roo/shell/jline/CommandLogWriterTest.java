@@ -0,0 +1,114 @@
+package org.springframework.roo.shell.jline;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test of {@link CommandLogWriter}
+ */
+public class CommandLogWriterTest {
+
+	// Fields
+	private File log;
+
+	@Before
+	public void setUp() throws Exception {
+		log = File.createTempFile("command", ".log");
+		log.deleteOnExit();
+	}
+
+	@After
+	public void tearDown() {
+		log.delete();
+	}
+
+	@Test
+	public void testCloseWritesEveryLineLoggedBeforeIt() throws Exception {
+		// Set up
+		final CommandLogWriter writer = new CommandLogWriter(log, null, 1, 16, 60000);
+
+		// Invoke
+		for (int i = 0; i < 1000; i++) {
+			writer.log("line " + i);
+		}
+		writer.close();
+
+		// Check
+		final List<String> lines = read(log);
+		Assert.assertEquals(1000, lines.size());
+		for (int i = 0; i < 1000; i++) {
+			Assert.assertEquals("line " + i, lines.get(i));
+		}
+	}
+
+	@Test
+	public void testLinesLoggedWhileClosingAreWrittenInFullOrNotAtAll() throws Exception {
+		// Set up
+		final CommandLogWriter writer = new CommandLogWriter(log, null, 1, 16, 60000);
+		final CountDownLatch logging = new CountDownLatch(1);
+		final Thread logger = new Thread(new Runnable() {
+			public void run() {
+				for (int i = 0; i < 100000; i++) {
+					writer.log("line " + i);
+					logging.countDown();
+				}
+			}
+		});
+		logger.start();
+
+		// Invoke
+		logging.await();
+		writer.close();
+		logger.join(TimeUnit.SECONDS.toMillis(30));
+
+		// Check
+		Assert.assertFalse("Logger still blocked", logger.isAlive());
+		final List<String> lines = read(log);
+		Assert.assertFalse(lines.isEmpty());
+		for (int i = 0; i < lines.size(); i++) {
+			Assert.assertEquals("line " + i, lines.get(i));
+		}
+	}
+
+	@Test
+	public void testLogAfterCloseIsIgnored() throws Exception {
+		// Set up
+		final CommandLogWriter writer = new CommandLogWriter(log, null, 4, 16, 60000);
+		writer.log("before");
+		writer.close();
+
+		// Invoke
+		writer.log("after");
+		writer.close();
+
+		// Check
+		final List<String> lines = new ArrayList<String>();
+		lines.add("before");
+		Assert.assertEquals(lines, read(log));
+	}
+
+	static List<String> read(final File file) throws IOException {
+		final List<String> lines = new ArrayList<String>();
+		final BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lines.add(line);
+			}
+		} finally {
+			reader.close();
+		}
+		return lines;
+	}
+}
@@ -0,0 +1,120 @@
+package org.springframework.roo.shell.jline;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import jline.History;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test of {@link HistoryIndex}
+ */
+public class HistoryIndexTest {
+
+	// Constants
+	private static final String ALPHABET = "ab -";
+
+	@Test
+	public void testSearchBackwardsMatchesJLine() {
+		// Set up
+		final Random random = new Random(42);
+		final History history = new History();
+		final HistoryIndex index = new HistoryIndex();
+		for (int i = 0; i < 200; i++) {
+			final String command = randomText(random, 1 + random.nextInt(12));
+			history.addToHistory(command);
+			if (history.size() > index.size()) {
+				index.add(command);
+			}
+		}
+		Assert.assertEquals(history.size(), index.size());
+
+		// Invoke and check
+		for (int i = 0; i < 5000; i++) {
+			// Includes terms shorter than a trigram, and start indexes outside the history
+			final String term = randomText(random, random.nextInt(5));
+			final int startIndex = random.nextInt(history.size() + 4) - 2;
+			Assert.assertEquals("'" + term + "' before " + startIndex, history.searchBackwards(term, startIndex), index.searchBackwards(term, startIndex));
+		}
+	}
+
+	@Test
+	public void testSearchBackwardsFindsMostRecentMatch() {
+		// Set up
+		final HistoryIndex index = new HistoryIndex();
+		index.add("entity jpa --class ~.Owner");
+		index.add("field string --fieldName name");
+		index.add("entity jpa --class ~.Pet");
+
+		// Invoke and check
+		Assert.assertEquals(2, index.searchBackwards("entity", 3));
+		Assert.assertEquals(0, index.searchBackwards("entity", 2));
+		Assert.assertEquals(1, index.searchBackwards("d s", 3));
+		Assert.assertEquals(-1, index.searchBackwards("entity", 0));
+		Assert.assertEquals(-1, index.searchBackwards("Vet", 3));
+	}
+
+	@Test
+	public void testRemoveOldestKeepsPositionsAlignedWithJLine() {
+		// Set up
+		final Random random = new Random(7);
+		final History history = new History();
+		history.setMaxSize(10);
+		final HistoryIndex index = new HistoryIndex();
+
+		// Invoke: enough commands for the index to be compacted more than once
+		for (int i = 0; i < 5000; i++) {
+			final String command = i + " " + randomText(random, 4);
+			history.addToHistory(command);
+			while (index.size() >= history.size()) {
+				index.removeOldest();
+			}
+			index.add(command);
+
+			// Check
+			Assert.assertEquals(history.size(), index.size());
+			for (int position = 0; position < index.size(); position++) {
+				Assert.assertEquals(history.getHistoryList().get(position), index.get(position));
+			}
+			final String term = randomText(random, random.nextInt(4));
+			Assert.assertEquals(history.searchBackwards(term, history.size()), index.searchBackwards(term, index.size()));
+		}
+	}
+
+	@Test
+	public void testGetCommandsStartingWithListsDistinctCommandsMostRecentFirst() {
+		// Set up
+		final HistoryIndex index = new HistoryIndex();
+		index.add("entity jpa --class ~.Owner");
+		index.add("hint");
+		index.add("entity jpa --class ~.Pet");
+		index.add("entity jpa --class ~.Owner");
+
+		// Invoke and check
+		Assert.assertEquals(Arrays.asList("entity jpa --class ~.Owner", "entity jpa --class ~.Pet"), index.getCommandsStartingWith("entity", 10));
+		Assert.assertEquals(Arrays.asList("entity jpa --class ~.Owner"), index.getCommandsStartingWith("entity", 1));
+		Assert.assertTrue(index.getCommandsStartingWith("field", 10).isEmpty());
+	}
+
+	@Test
+	public void testGetCommandsStartingWithLeavesOutRemovedCommands() {
+		// Set up
+		final HistoryIndex index = new HistoryIndex();
+		index.add("hint");
+		index.add("help");
+		index.removeOldest();
+
+		// Invoke and check
+		Assert.assertEquals(Arrays.asList("help"), index.getCommandsStartingWith("h", 10));
+	}
+
+	private static String randomText(final Random random, final int length) {
+		final StringBuilder text = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			text.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+		}
+		return text.toString();
+	}
+}
@@ -0,0 +1,118 @@
+package org.springframework.roo.shell.jline;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test of {@link HistoryLoader}
+ */
+public class HistoryLoaderTest {
+
+	// Fields
+	private File log;
+
+	@Before
+	public void setUp() throws Exception {
+		log = File.createTempFile("command", ".log");
+		log.deleteOnExit();
+	}
+
+	@After
+	public void tearDown() {
+		log.delete();
+	}
+
+	@Test
+	public void testReadLastCommandsSkipsCommentsAndBlankLines() throws Exception {
+		// Set up
+		write(log, "// Spring Roo session\nfirst\n\n  \nsecond\n// comment\n");
+
+		// Invoke
+		final List<String> commands = HistoryLoader.readLastCommands(log, log.length(), 10);
+
+		// Check
+		Assert.assertEquals(Arrays.asList("first", "second"), commands);
+	}
+
+	@Test
+	public void testReadLastCommandsJoinsLinesSplitAcrossChunks() throws Exception {
+		// Set up
+		final StringBuilder longLine = new StringBuilder();
+		for (int i = 0; i < 20000; i++) {
+			longLine.append((char) ('a' + i % 26));
+		}
+		write(log, "first\n" + longLine + "\nlast\n");
+
+		// Invoke
+		final List<String> commands = HistoryLoader.readLastCommands(log, log.length(), 10);
+
+		// Check
+		Assert.assertEquals(Arrays.asList("first", longLine.toString(), "last"), commands);
+	}
+
+	@Test
+	public void testReadLastCommandsWithCrLfLineEndings() throws Exception {
+		// Set up
+		write(log, "first\r\nsecond\r\n");
+
+		// Invoke
+		final List<String> commands = HistoryLoader.readLastCommands(log, log.length(), 10);
+
+		// Check
+		Assert.assertEquals(Arrays.asList("first", "second"), commands);
+	}
+
+	@Test
+	public void testReadLastCommandsIncludesFirstLineAndUnterminatedLastLine() throws Exception {
+		// Set up
+		write(log, "first\nsecond");
+
+		// Invoke
+		final List<String> commands = HistoryLoader.readLastCommands(log, log.length(), 10);
+
+		// Check
+		Assert.assertEquals(Arrays.asList("first", "second"), commands);
+	}
+
+	@Test
+	public void testReadLastCommandsStopsAtMaximum() throws Exception {
+		// Set up
+		write(log, "first\nsecond\nthird\nfourth\n");
+
+		// Invoke
+		final List<String> commands = HistoryLoader.readLastCommands(log, log.length(), 2);
+
+		// Check
+		Assert.assertEquals(Arrays.asList("third", "fourth"), commands);
+	}
+
+	@Test
+	public void testReadLastCommandsIgnoresWhatFollowsGivenLength() throws Exception {
+		// Set up
+		write(log, "first\nsecond\nthird\n");
+
+		// Invoke
+		final List<String> commands = HistoryLoader.readLastCommands(log, "first\nsecond\n".length(), 10);
+
+		// Check
+		Assert.assertEquals(Arrays.asList("first", "second"), commands);
+	}
+
+	static void write(final File file, final String text) throws IOException {
+		final OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(text.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package org.springframework.roo.shell.jline;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test of {@link HistoryStore}
+ */
+public class HistoryStoreTest {
+
+	// Fields
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("history", ".txt");
+		file.delete();
+		file.deleteOnExit();
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+		new File(file.getPath() + ".new").delete();
+	}
+
+	@Test
+	public void testLoadMissingHistory() throws Exception {
+		// Set up
+		final HistoryStore store = new HistoryStore(file, 10);
+
+		// Invoke and check
+		Assert.assertFalse(store.exists());
+		Assert.assertTrue(store.load().isEmpty());
+		Assert.assertFalse(store.exists());
+	}
+
+	@Test
+	public void testLoadKeepsLatestOccurrenceOfEachCommand() throws Exception {
+		// Set up
+		HistoryLoaderTest.write(file, "hint\nentity jpa\n\nhint\nfield string\n");
+		final HistoryStore store = new HistoryStore(file, 10);
+
+		// Invoke
+		final List<String> commands = store.load();
+
+		// Check
+		Assert.assertEquals(Arrays.asList("entity jpa", "hint", "field string"), commands);
+	}
+
+	@Test
+	public void testLoadKeepsOnlyMostRecentCommands() throws Exception {
+		// Set up
+		HistoryLoaderTest.write(file, "first\nsecond\nthird\n");
+		final HistoryStore store = new HistoryStore(file, 2);
+
+		// Invoke
+		final List<String> commands = store.load();
+
+		// Check
+		Assert.assertEquals(Arrays.asList("second", "third"), commands);
+	}
+
+	@Test
+	public void testLoadCompactsHistoryTwiceTheSizeOfWhatsKept() throws Exception {
+		// Set up
+		HistoryLoaderTest.write(file, "hint\nhint\nversion\nhint\n");
+		final HistoryStore store = new HistoryStore(file, 10);
+
+		// Invoke
+		final List<String> commands = store.load();
+
+		// Check
+		Assert.assertEquals(Arrays.asList("version", "hint"), commands);
+		Assert.assertEquals(commands, CommandLogWriterTest.read(file));
+	}
+
+	@Test
+	public void testLoadLeavesSmallHistoryAsItIs() throws Exception {
+		// Set up
+		HistoryLoaderTest.write(file, "hint\nversion\nhint\n");
+		final HistoryStore store = new HistoryStore(file, 10);
+
+		// Invoke
+		store.load();
+
+		// Check
+		Assert.assertEquals(Arrays.asList("hint", "version", "hint"), CommandLogWriterTest.read(file));
+	}
+
+	@Test
+	public void testPrependKeepsCommandsAppendedBefore() throws Exception {
+		// Set up
+		final HistoryStore store = new HistoryStore(file, 10);
+		store.append("entered");
+
+		// Invoke
+		store.prepend(Arrays.asList("first", "second"));
+		store.append("later");
+		store.close();
+
+		// Check
+		Assert.assertEquals(Arrays.asList("first", "second", "entered", "later"), store.load());
+	}
+}
@@ -0,0 +1,88 @@
+package org.springframework.roo.shell.jline;
+
+import java.io.File;
+import java.util.Arrays;
+
+import jline.History;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test of {@link IndexedHistory}
+ */
+public class IndexedHistoryTest {
+
+	// Fields
+	private File file;
+	private HistoryStore store;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("history", ".txt");
+		file.delete();
+		file.deleteOnExit();
+		store = new HistoryStore(file, 100);
+	}
+
+	@After
+	public void tearDown() {
+		store.close();
+		file.delete();
+	}
+
+	@Test
+	public void testAddToHistoryStoresCommandsButNotRepeats() throws Exception {
+		// Set up
+		final IndexedHistory history = new IndexedHistory(store, 100);
+
+		// Invoke
+		history.addToHistory("hint");
+		history.addToHistory("hint");
+		history.addToHistory("version");
+
+		// Check
+		Assert.assertEquals(Arrays.asList("hint", "version"), history.getHistoryList());
+		Assert.assertEquals(Arrays.asList("hint", "version"), CommandLogWriterTest.read(file));
+	}
+
+	@Test
+	public void testAddOlderLeavesOutCommandsEnteredSince() throws Exception {
+		// Set up
+		final IndexedHistory history = new IndexedHistory(store, 100);
+		history.addToHistory("hint");
+
+		// Invoke
+		history.addOlder(Arrays.asList("version", "hint", "help"));
+
+		// Check
+		Assert.assertEquals(Arrays.asList("version", "help", "hint"), history.getHistoryList());
+		Assert.assertEquals(2, history.searchBackwards("hint", history.size()));
+		Assert.assertEquals(Arrays.asList("hint"), CommandLogWriterTest.read(file));
+	}
+
+	@Test
+	public void testSearchBackwardsMatchesJLineOnceFull() {
+		// Set up
+		final IndexedHistory history = new IndexedHistory(store, 5);
+		final History reference = new History();
+		reference.setMaxSize(5);
+
+		// Invoke
+		for (int i = 0; i < 50; i++) {
+			final String command = "command " + i % 7;
+			history.addToHistory(command);
+			reference.addToHistory(command);
+		}
+
+		// Check
+		Assert.assertEquals(reference.getHistoryList(), history.getHistoryList());
+		for (int i = 0; i < 7; i++) {
+			for (int startIndex = 0; startIndex <= 5; startIndex++) {
+				Assert.assertEquals(reference.searchBackwards(" " + i, startIndex), history.searchBackwards(" " + i, startIndex));
+			}
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package org.springframework.roo.shell.jline;
+
+import java.io.StringWriter;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import jline.ConsoleReader;
+import jline.UnsupportedTerminal;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.roo.shell.ShellPromptAccessor;
+import org.springframework.roo.support.util.StringUtils;
+
+/**
+ * Unit test of {@link JLineLogHandler}
+ */
+public class JLineLogHandlerTest {
+
+	// Constants
+	private static final String WRITER_NAME = "Spring Roo JLine Log Output";
+
+	// Fields
+	private StringWriter out;
+	private JLineLogHandler handler;
+
+	@Before
+	public void setUp() throws Exception {
+		JLineLogHandler.resetMessageTracking();
+		out = new StringWriter();
+		final ConsoleReader reader = new ConsoleReader(null, out, null, new UnsupportedTerminal());
+		handler = new JLineLogHandler(reader, new ShellPromptAccessor() {
+			public String getShellPrompt() {
+				return "roo> ";
+			}
+		});
+	}
+
+	@Test
+	public void testCloseDisplaysMessagesAndEndsWriter() throws Exception {
+		// Set up
+		final Set<Thread> existingWriters = getWriters();
+		for (int i = 0; i < 3; i++) {
+			handler.publish(new LogRecord(Level.INFO, "Created file " + i));
+		}
+		final Set<Thread> writers = getWriters();
+		writers.removeAll(existingWriters);
+		Assert.assertEquals(1, writers.size());
+
+		// Invoke
+		handler.close();
+
+		// Check
+		Assert.assertFalse(writers.iterator().next().isAlive());
+		Assert.assertTrue(out.toString(), out.toString().contains("Created file 2" + StringUtils.LINE_SEPARATOR));
+		handler.publish(new LogRecord(Level.INFO, "Closed"));
+		Assert.assertTrue("Displayed without the writer once closed", out.toString().contains("Closed"));
+		Assert.assertEquals(existingWriters, getWriters());
+	}
+
+	@Test
+	public void testInterruptedWriterEndsAndLaterMessagesAreStillDisplayed() throws Exception {
+		// Set up
+		final Set<Thread> existingWriters = getWriters();
+		handler.publish(new LogRecord(Level.INFO, "Before"));
+		final Set<Thread> writers = getWriters();
+		writers.removeAll(existingWriters);
+		final Thread writer = writers.iterator().next();
+
+		// Invoke
+		writer.interrupt();
+		writer.join(10000);
+
+		// Check
+		Assert.assertFalse(writer.isAlive());
+		handler.publish(new LogRecord(Level.INFO, "After"));
+		handler.flush();
+		Assert.assertTrue(out.toString(), out.toString().contains("Before"));
+		Assert.assertTrue(out.toString(), out.toString().contains("After"));
+	}
+
+	private static Set<Thread> getWriters() {
+		final Set<Thread> writers = new HashSet<Thread>();
+		for (final Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (WRITER_NAME.equals(thread.getName()) && thread.isAlive()) {
+				writers.add(thread);
+			}
+		}
+		return writers;
+	}
+}
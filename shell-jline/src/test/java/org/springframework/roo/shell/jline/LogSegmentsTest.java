@@ -0,0 +1,194 @@
+package org.springframework.roo.shell.jline;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test of {@link LogSegments}
+ */
+public class LogSegmentsTest {
+
+	// Fields
+	private File directory;
+	private File log;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = File.createTempFile("logs", "");
+		directory.delete();
+		directory.mkdir();
+		log = new File(directory, "command.log");
+	}
+
+	@After
+	public void tearDown() {
+		for (final File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void testIsDueBySize() throws Exception {
+		// Set up
+		final LogSegments segments = new LogSegments(log, 100, 0, 5);
+		segments.open();
+
+		// Invoke and check
+		Assert.assertFalse(segments.isDue(0));
+		Assert.assertFalse(segments.isDue(99));
+		Assert.assertTrue(segments.isDue(100));
+	}
+
+	@Test
+	public void testIsDueByAge() throws Exception {
+		// Set up
+		final LogSegments young = new LogSegments(log, 0, 60000, 5);
+		young.open();
+		HistoryLoaderTest.write(log, "hint\n");
+		final LogSegments old = new LogSegments(new File(directory, "old.log"), 0, 1, 5);
+		old.open();
+		Thread.sleep(20);
+
+		// Invoke and check
+		Assert.assertFalse(young.isDue(log.length()));
+		Assert.assertTrue(old.isDue(5));
+		Assert.assertFalse("An empty log is never due", old.isDue(0));
+	}
+
+	@Test
+	public void testRotateCompressesLogIntoNewSegment() throws Exception {
+		// Set up
+		final LogSegments segments = new LogSegments(log, 100, 0, 5);
+		segments.open();
+		HistoryLoaderTest.write(log, "first\nsecond\n");
+
+		// Invoke
+		segments.rotate();
+
+		// Check
+		Assert.assertFalse(log.exists());
+		final List<File> files = segments.getSegments();
+		Assert.assertEquals(Arrays.asList(new File(directory, "command.log.1.gz")), files);
+		Assert.assertEquals(Arrays.asList("first", "second"), readCompressed(files.get(0)));
+	}
+
+	@Test
+	public void testOpenRotatesLogAlreadyDue() throws Exception {
+		// Set up
+		new LogSegments(log, 10, 0, 5).open();
+		HistoryLoaderTest.write(log, "a line longer than ten bytes\n");
+
+		// Invoke
+		final LogSegments segments = new LogSegments(log, 10, 0, 5);
+		segments.open();
+
+		// Check
+		Assert.assertFalse(log.exists());
+		Assert.assertEquals(1, segments.getSegments().size());
+	}
+
+	@Test
+	public void testRotatePrunesSegmentsBeyondMaximum() throws Exception {
+		// Set up
+		final LogSegments segments = new LogSegments(log, 100, 0, 2);
+		segments.open();
+
+		// Invoke
+		for (int i = 1; i <= 4; i++) {
+			HistoryLoaderTest.write(log, "command " + i + "\n");
+			segments.rotate();
+		}
+
+		// Check
+		Assert.assertEquals(Arrays.asList(new File(directory, "command.log.4.gz"), new File(directory, "command.log.3.gz")), segments.getSegments());
+		Assert.assertFalse(new File(directory, "command.log.1.gz").exists());
+		Assert.assertFalse(new File(directory, "command.log.2.gz").exists());
+	}
+
+	@Test
+	public void testManifestIsReadBackBySameLog() throws Exception {
+		// Set up
+		final LogSegments segments = new LogSegments(log, 100, 0, 5);
+		segments.open();
+		HistoryLoaderTest.write(log, "first\n");
+		segments.rotate();
+		HistoryLoaderTest.write(log, "second\n");
+		segments.rotate();
+
+		// Invoke
+		final LogSegments reopened = new LogSegments(log, 100, 0, 5);
+
+		// Check
+		Assert.assertEquals(segments.getSegments(), reopened.getSegments());
+		HistoryLoaderTest.write(log, "third\n");
+		reopened.rotate();
+		Assert.assertEquals(new File(directory, "command.log.3.gz"), reopened.getSegments().get(0));
+	}
+
+	@Test
+	public void testHistoryIsReadAcrossLogAndSegments() throws Exception {
+		// Set up
+		final LogSegments segments = new LogSegments(log, 100, 0, 5);
+		segments.open();
+		HistoryLoaderTest.write(log, "// session\nfirst\nsecond\n");
+		segments.rotate();
+		HistoryLoaderTest.write(log, "third\nfourth\n");
+		segments.rotate();
+		HistoryLoaderTest.write(log, "fifth\n");
+
+		// Invoke
+		final List<String> all = HistoryLoader.readLastCommands(log, log.length(), segments.getSegments(), 10);
+		final List<String> latest = HistoryLoader.readLastCommands(log, log.length(), segments.getSegments(), 4);
+
+		// Check
+		Assert.assertEquals(Arrays.asList("first", "second", "third", "fourth", "fifth"), all);
+		Assert.assertEquals(Arrays.asList("second", "third", "fourth", "fifth"), latest);
+	}
+
+	@Test
+	public void testCommandLogWriterRotatesLogOnceDue() throws Exception {
+		// Set up
+		final LogSegments segments = new LogSegments(log, 32, 0, 5);
+		final CommandLogWriter writer = new CommandLogWriter(log, segments, 16, 16, 60000);
+
+		// Invoke
+		for (int i = 0; i < 10; i++) {
+			writer.log("command " + i);
+		}
+		writer.close();
+
+		// Check
+		Assert.assertFalse(segments.getSegments().isEmpty());
+		final List<String> commands = HistoryLoader.readLastCommands(log, log.length(), segments.getSegments(), 100);
+		Assert.assertEquals(10, commands.size());
+		for (int i = 0; i < 10; i++) {
+			Assert.assertEquals("command " + i, commands.get(i));
+		}
+	}
+
+	private static List<String> readCompressed(final File file) throws Exception {
+		final List<String> lines = new ArrayList<String>();
+		final BufferedReader in = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file)), "UTF-8"));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				lines.add(line);
+			}
+		} finally {
+			in.close();
+		}
+		return lines;
+	}
+}
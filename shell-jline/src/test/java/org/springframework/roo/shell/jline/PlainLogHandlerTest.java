@@ -0,0 +1,66 @@
+package org.springframework.roo.shell.jline;
+
+import java.io.ByteArrayOutputStream;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.roo.support.util.StringUtils;
+
+/**
+ * Unit test of {@link PlainLogHandler}
+ */
+public class PlainLogHandlerTest {
+
+	@Test
+	public void testOutputDependsOnlyOnMessagesPublished() throws Exception {
+		// Set up
+		final StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			expected.append("Polling").append(StringUtils.LINE_SEPARATOR);
+			expected.append("Found " + i).append(StringUtils.LINE_SEPARATOR);
+		}
+
+		// Invoke and check
+		Assert.assertEquals(expected.toString(), publishMessages(0));
+		Assert.assertEquals(expected.toString(), publishMessages(1));
+	}
+
+	@Test
+	public void testMessageRepeatingPreviousOneIsLeftOut() throws Exception {
+		// Set up
+		JLineLogHandler.resetMessageTracking();
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final PlainLogHandler handler = new PlainLogHandler(out);
+
+		// Invoke
+		handler.publish(new LogRecord(Level.INFO, "Polling"));
+		handler.publish(new LogRecord(Level.INFO, "Polling"));
+		handler.flush();
+
+		// Check
+		Assert.assertEquals("Polling" + StringUtils.LINE_SEPARATOR, out.toString());
+	}
+
+	/**
+	 * Publishes a message that keeps recurring among others, pausing after each
+	 *
+	 * @param pauseMillis how long to pause
+	 * @return the output
+	 */
+	private String publishMessages(final long pauseMillis) throws Exception {
+		JLineLogHandler.resetMessageTracking();
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final PlainLogHandler handler = new PlainLogHandler(out);
+		for (int i = 0; i < 100; i++) {
+			handler.publish(new LogRecord(Level.INFO, "Polling"));
+			handler.publish(new LogRecord(Level.INFO, "Found " + i));
+			if (i % 10 == 0) {
+				Thread.sleep(pauseMillis);
+			}
+		}
+		handler.close();
+		return out.toString();
+	}
+}
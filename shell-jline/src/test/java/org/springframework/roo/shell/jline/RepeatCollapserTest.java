@@ -0,0 +1,107 @@
+package org.springframework.roo.shell.jline;
+
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test of {@link RepeatCollapser}
+ */
+public class RepeatCollapserTest {
+
+	// Constants
+	private static final String MESSAGE = "Polling for changes\n";
+
+	@Test
+	public void testMessagesRepeatedUpToThresholdAreDisplayed() {
+		// Set up
+		final RepeatCollapser collapser = new RepeatCollapser(1000, 3, 10);
+
+		// Invoke and check
+		for (int i = 0; i < 3; i++) {
+			Assert.assertFalse(collapser.isCollapsed(newRecord("poller", MESSAGE), MESSAGE, i));
+		}
+		Assert.assertTrue(collapser.getSummaries(2000).isEmpty());
+		Assert.assertEquals(Long.MAX_VALUE, collapser.getNextSummaryTime());
+	}
+
+	@Test
+	public void testMessagesRepeatedBeyondThresholdAreCollapsedThenSummarised() {
+		// Set up
+		final RepeatCollapser collapser = new RepeatCollapser(1000, 2, 10);
+
+		// Invoke
+		for (int i = 0; i < 2; i++) {
+			Assert.assertFalse(collapser.isCollapsed(newRecord("poller", MESSAGE), MESSAGE, 100 + i));
+		}
+		for (int i = 0; i < 5; i++) {
+			Assert.assertTrue(collapser.isCollapsed(newRecord("poller", MESSAGE), MESSAGE, 200 + i));
+		}
+
+		// Check
+		Assert.assertEquals(1100, collapser.getNextSummaryTime());
+		Assert.assertTrue(collapser.getSummaries(1099).isEmpty());
+		final List<String> summaries = collapser.getSummaries(1100);
+		Assert.assertEquals(1, summaries.size());
+		Assert.assertTrue(summaries.get(0), summaries.get(0).startsWith("Polling for changes (repeated 5 more times in last 1s)"));
+		Assert.assertTrue(collapser.getSummaries(5000).isEmpty());
+		Assert.assertFalse("Displayed again once the window has ended", collapser.isCollapsed(newRecord("poller", MESSAGE), MESSAGE, 1100));
+	}
+
+	@Test
+	public void testMessagesRecurringSlowlyAreNeverCollapsed() {
+		// Set up
+		final RepeatCollapser collapser = new RepeatCollapser(1000, 2, 10);
+
+		// Invoke and check
+		for (int i = 0; i < 20; i++) {
+			Assert.assertFalse(collapser.isCollapsed(newRecord("poller", MESSAGE), MESSAGE, i * 600));
+		}
+	}
+
+	@Test
+	public void testMessagesOfEachLoggerAreCountedSeparately() {
+		// Set up
+		final RepeatCollapser collapser = new RepeatCollapser(1000, 1, 10);
+		collapser.isCollapsed(newRecord("poller", MESSAGE), MESSAGE, 0);
+
+		// Invoke and check
+		Assert.assertFalse(collapser.isCollapsed(newRecord("other", MESSAGE), MESSAGE, 1));
+		Assert.assertTrue(collapser.isCollapsed(newRecord("poller", MESSAGE), MESSAGE, 2));
+	}
+
+	@Test
+	public void testNoMessagesAreCollapsedWithoutWindow() {
+		// Set up
+		final RepeatCollapser collapser = new RepeatCollapser(0, 1, 10);
+
+		// Invoke and check
+		for (int i = 0; i < 5; i++) {
+			Assert.assertFalse(collapser.isCollapsed(newRecord("poller", MESSAGE), MESSAGE, 0));
+		}
+	}
+
+	@Test
+	public void testForgetRecentMessagesDisplaysNextOccurrence() {
+		// Set up
+		final RepeatCollapser collapser = new RepeatCollapser(1000, 1, 10);
+		collapser.isCollapsed(newRecord("poller", MESSAGE), MESSAGE, 0);
+		Assert.assertTrue(collapser.isCollapsed(newRecord("poller", MESSAGE), MESSAGE, 1));
+
+		// Invoke
+		RepeatCollapser.forgetRecentMessages();
+
+		// Check
+		Assert.assertFalse(collapser.isCollapsed(newRecord("poller", MESSAGE), MESSAGE, 2));
+		Assert.assertEquals("Repeats already counted are still summarised", 1, collapser.getSummaries(1000).size());
+	}
+
+	private static LogRecord newRecord(final String loggerName, final String message) {
+		final LogRecord record = new LogRecord(Level.INFO, message);
+		record.setLoggerName(loggerName);
+		return record;
+	}
+}
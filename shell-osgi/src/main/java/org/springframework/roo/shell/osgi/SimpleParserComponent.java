@@ -107,6 +107,12 @@ public class SimpleParserComponent extends SimpleParser implements CommandMarker
 		super.helpReferenceGuide();
 	}
 
+	@Override
+	@CliCommand(value = "availability indicators", help = "Shows how long each command availability indicator has taken to evaluate, slowest first")
+	public void reportAvailabilityIndicators() {
+		super.reportAvailabilityIndicators();
+	}
+
 	@Override
 	@CliCommand(value = "help", help = "Shows system help")
 	public void obtainHelp(
@@ -15,9 +15,12 @@ import java.net.URL;
 import java.text.DateFormat;
 import java.util.Collection;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 import java.util.logging.Level;
@@ -30,6 +33,7 @@ import org.springframework.roo.shell.CliOption;
 import org.springframework.roo.shell.ExecutionStrategy;
 import org.springframework.roo.shell.ExitShellRequest;
 import org.springframework.roo.shell.ParseResult;
+import org.springframework.roo.shell.MappedScript.Checkpoint;
 import org.springframework.roo.shell.Parser;
 import org.springframework.roo.shell.Shell;
 import org.springframework.roo.shell.event.AbstractShellStatusPublisher;
@@ -52,6 +56,11 @@ public abstract class AbstractShell extends AbstractShellStatusPublisher impleme
 	// Constants
 	private static final String MY_SLOT = AbstractShell.class.getName();
 	protected static final String BENSON_PROMPT = "benson> ";
+	private static final int MAX_PREPARED_COMMANDS = 100; // per script
+	private static final int PIPELINE_CAPACITY = 64; // lines read ahead of the one executing
+	private static final int PROFILE_REPORT_LINES = 10; // slowest lines reported by "script --profile"
+	private static final long LOADING_MESSAGE_DELAY = 500; // ms to wait for commands before saying so
+	private static final long READINESS_POLL_INTERVAL = 20; // ms; for strategies that can't notify readiness
 
 	// Public static fields; don't rename, make final, or make non-public, as
 	// they are part of the public API, e.g. are changed by STS.
@@ -62,6 +71,10 @@ public abstract class AbstractShell extends AbstractShellStatusPublisher impleme
 	protected final Logger logger = HandlerUtils.getLogger(getClass());
 	protected boolean inBlockComment;
 	protected ExitShellRequest exitShellRequest;
+	// The commands prepared by the script running on the current thread, keyed by the text before their first option
+	private final ThreadLocal<Map<String, PreparedCommand>> preparedCommands = new ThreadLocal<Map<String, PreparedCommand>>();
+	// The line being executed by the script running on the current thread
+	private final ThreadLocal<ScriptLine> readAheadLine = new ThreadLocal<ScriptLine>();
 
 	/**
 	 * Returns any classpath resources with the given path
@@ -81,43 +94,308 @@ public abstract class AbstractShell extends AbstractShellStatusPublisher impleme
 	@CliCommand(value = { "script" }, help = "Parses the specified resource file and executes its commands")
 	public void script(
 			@CliOption(key = { "", "file" }, help = "The file to locate and execute", mandatory = true) final File script, 
-			@CliOption(key = "lineNumbers", mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "Display line numbers when executing the script") final boolean lineNumbers) {
+			@CliOption(key = "lineNumbers", mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "Display line numbers when executing the script") final boolean lineNumbers,
+			@CliOption(key = "pipelined", mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "Compile each line on a separate thread while the previous one executes") final boolean pipelined,
+			@CliOption(key = "fromLine", mandatory = false, help = "The number of the first line to execute") final Integer fromLine,
+			@CliOption(key = "toLine", mandatory = false, help = "The number of the last line to execute") final Integer toLine,
+			@CliOption(key = "resume", mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "Resume from the line that failed when the script last ran") final boolean resume,
+			@CliOption(key = { "validate", "validateFirst" }, mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "Check every line to be executed before executing any of them; lines using commands not yet known are only reported, as earlier lines may add those commands") final boolean validate,
+			@CliOption(key = "profile", mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "Time each line, reporting the slowest lines and commands") final boolean profile,
+			@CliOption(key = "profileFile", mandatory = false, help = "The file to which to write each line's timings, as JSON if its name ends with '.json', otherwise as CSV; by default, the script's path plus '.profile.csv'") final File profileFile) {
 
 		Assert.notNull(script, "Script file to parse is required");
+		Assert.isTrue(fromLine == null || fromLine > 0, "The first line to execute must be at least 1");
+		Assert.isTrue(toLine == null || toLine >= (fromLine == null ? 1 : fromLine), "The last line to execute cannot precede the first");
+		Assert.isTrue(!resume || fromLine == null, "A resumed script starts from the line that failed, so cannot also be given a first line");
+		final boolean compiled = CompiledScript.isCompiled(script);
+		Assert.isTrue(!compiled || !pipelined, "A compiled script needs no parsing, so cannot be pipelined");
+		Assert.isTrue(!compiled || !resume, "A compiled script cannot be resumed; resume the script it was compiled from");
 		double startedNanoseconds = System.nanoTime();
-		final InputStream inputStream = openScript(script);
-
+		// Unless it's to be pipelined, a script compiled since it last changed is executed in that form
+		final CompiledScript compiledScript = compiled || !pipelined ? findCompiledScript(script, compiled) : null;
+		final MappedScript mappedScript = compiled ? null : mapScript(script);
+		Assert.isTrue(!resume || mappedScript != null, "Only scripts on disk can be resumed");
+		int firstLine = fromLine == null ? 1 : fromLine;
+		if (resume) {
+			firstLine = resumeScript(mappedScript, script);
+		} else if (firstLine > 1) {
+			inBlockComment = isInBlockComment(script, mappedScript, firstLine);
+		}
+		if (validate && !compiled) {
+			// A compiled script was validated as it was compiled
+			validateScript(script, firstLine, toLine);
+		}
+		final Map<String, PreparedCommand> enclosingScriptCommands = preparedCommands.get();
+		final ScriptLine enclosingScriptLine = readAheadLine.get();
+		final ScriptProfiler enclosingProfiler = ScriptProfiler.current();
+		final ScriptProfiler profiler = profile ? new ScriptProfiler() : null;
+		preparedCommands.set(newPreparedCommandCache());
+		ScriptProfiler.setCurrent(profiler);
+
+		InputStream inputStream = null;
 		BufferedReader in = null;
+		ScriptReader reader = null;
+		boolean complete = false;
+		int failedLine = 0;
 		try {
-			in = new BufferedReader(new InputStreamReader(inputStream));
-			String line;
+			if (compiledScript == null) {
+				// A mapped script is read from the first line; otherwise the earlier lines are read and skipped
+				inputStream = mappedScript == null ? openScript(script) : mappedScript.openStream(firstLine);
+				in = new BufferedReader(new InputStreamReader(inputStream));
+				final int firstLineRead = mappedScript == null ? 1 : firstLine;
+				if (pipelined) {
+					final ScriptPipeline pipeline = new ScriptPipeline(in, getParser(), firstLineRead, PIPELINE_CAPACITY, inBlockComment, "Script reader: " + script.getName());
+					pipeline.start();
+					reader = pipeline;
+				} else {
+					reader = ScriptReader.forText(in, firstLineRead);
+				}
+			} else {
+				reader = newCompiledReader(compiledScript, script);
+			}
+			ScriptLine scriptLine;
 			int i = 0;
-			while ((line = in.readLine()) != null) {
-				i++;
+			while ((scriptLine = reader.next()) != null) {
+				i = scriptLine.getNumber();
+				if (i < firstLine) {
+					continue;
+				}
+				if (toLine != null && i > toLine) {
+					break;
+				}
+				final String line = scriptLine.getLine();
 				if (lineNumbers) {
 					logger.fine("Line " + i + ": " + line);
 				} else {
 					logger.fine(line);
 				}
 				if (!"".equals(line.trim())) {
-					boolean success = executeScriptLine(line);
+					failedLine = i; // unless it succeeds
+					readAheadLine.set(scriptLine);
+					if (profiler != null) {
+						profiler.startLine(i, line);
+					}
+					boolean success;
+					try {
+						success = executeScriptLine(line);
+					} finally {
+						if (profiler != null) {
+							profiler.endLine();
+						}
+					}
 					if (success && ((line.trim().startsWith("q") || line.trim().startsWith("ex")))) {
+						failedLine = 0;
 						break;
 					} else if (!success) {
 						// Abort script processing, given something went wrong
 						throw new IllegalStateException("Script execution aborted");
 					}
+					failedLine = 0;
 				}
 			}
+			// Unless stopped at the last line requested, the script is complete
+			complete = scriptLine == null || toLine == null || i <= toLine;
 		} catch (IOException e) {
 			throw new IllegalStateException(e);
 		} finally {
+			if (reader != null) {
+				reader.close();
+			}
+			if (mappedScript != null) {
+				updateCheckpoint(mappedScript, complete, failedLine);
+			}
+			preparedCommands.set(enclosingScriptCommands);
+			readAheadLine.set(enclosingScriptLine);
+			ScriptProfiler.setCurrent(enclosingProfiler);
+			if (profiler != null) {
+				reportProfile(profiler, profileFile == null ? new File(script.getPath() + ".profile.csv") : profileFile);
+			}
 			IOUtils.closeQuietly(inputStream, in);
 			double executionDurationInSeconds = (System.nanoTime() - startedNanoseconds) / 1000000000D;
 			logger.fine("Script required " + MathUtils.round(executionDurationInSeconds, 3) + " seconds to execute");
 		}
 	}
 
+	@CliCommand(value = { "script compile" }, help = "Validates the specified script file and saves it in a form that executes without being parsed")
+	public String compileScript(
+			@CliOption(key = { "", "file" }, help = "The script file to compile", mandatory = true) final File script,
+			@CliOption(key = "output", mandatory = false, help = "The file to write; by default, the script's path plus '" + CompiledScript.SUFFIX + "', where the 'script' command uses it in place of the script until the script changes") final File output) {
+
+		Assert.notNull(script, "Script file to compile is required");
+		Assert.isTrue(script.isFile(), "Only scripts on disk can be compiled");
+		Assert.isTrue(!CompiledScript.isCompiled(script), "Script '" + script + "' is already compiled");
+		final File target = output == null ? new File(script.getPath() + CompiledScript.SUFFIX) : output;
+		final CompiledScript compiledScript = new CompiledScript(getParser().getFingerprint(), script);
+		// Compiled as if the script were run from outside any block comment
+		final ScriptComments comments = new ScriptComments(false);
+		int invalidLines = 0;
+		BufferedReader in = null;
+		try {
+			in = new BufferedReader(new InputStreamReader(openScript(script)));
+			String line;
+			int i = 0;
+			while ((line = in.readLine()) != null) {
+				i++;
+				final String text = comments.getCommandText(line);
+				final CompiledCommand command = text == null ? null : getParser().compile(text);
+				if (command != null) {
+					compiledScript.addLine(line, text, command);
+				} else {
+					// Comments, and lines that can't be predicted, are parsed as usual when executed
+					compiledScript.addLine(line);
+					if (text != null) {
+						logger.warning("Line " + i + " is invalid: " + line);
+						invalidLines++;
+					}
+				}
+			}
+			Assert.isTrue(invalidLines == 0, "Script '" + script + "' has " + invalidLines + " invalid line(s), so was not compiled");
+			compiledScript.write(target);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+		return "Compiled " + compiledScript.getCompiledLineCount() + " command(s) from '" + script + "' into '" + target + "'";
+	}
+
+	private void reportProfile(final ScriptProfiler profiler, final File profileFile) {
+		for (final String reportLine : profiler.getReport(PROFILE_REPORT_LINES)) {
+			logger.info(reportLine);
+		}
+		try {
+			profiler.write(profileFile);
+			logger.info("Timings of each line written to '" + profileFile + "'");
+		} catch (IOException e) {
+			logger.warning("Could not write the timings of each line to '" + profileFile + "': " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Checks the given lines of the given script, so that none of them are executed if any are invalid
+	 */
+	private void validateScript(final File script, final int fromLine, final Integer toLine) {
+		final InputStream inputStream = openScript(script);
+		BufferedReader in = null;
+		try {
+			in = new BufferedReader(new InputStreamReader(inputStream));
+			final ScriptValidator validator = new ScriptValidator(getParser(), Runtime.getRuntime().availableProcessors());
+			final int invalidLines = validator.validate(in, fromLine, toLine);
+			if (invalidLines > 0) {
+				throw new IllegalStateException("Script '" + script + "' has " + invalidLines + " invalid line(s), so none of it was executed");
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			IOUtils.closeQuietly(inputStream, in);
+		}
+	}
+
+	/**
+	 * Returns the compiled form of the given script
+	 *
+	 * @param compiled whether the script is itself compiled, as opposed to possibly having been compiled alongside
+	 * @return <code>null</code> if it has no compiled form, or the script has changed since it was compiled
+	 */
+	private CompiledScript findCompiledScript(final File script, final boolean compiled) {
+		try {
+			return compiled ? CompiledScript.read(script) : CompiledScript.findCompiledForm(script);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private ScriptReader newCompiledReader(final CompiledScript compiledScript, final File script) {
+		if (compiledScript.getFingerprint().equals(getParser().getFingerprint())) {
+			return compiledScript.newReader(getParser());
+		}
+		logger.info("The available commands have changed since '" + script + "' was compiled; parsing it as text");
+		return compiledScript.newReader(null);
+	}
+
+	private MappedScript mapScript(final File script) {
+		try {
+			return MappedScript.map(script);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Moves the given script to the line that failed when it last ran
+	 *
+	 * @return the number of the line from which to resume
+	 */
+	private int resumeScript(final MappedScript mappedScript, final File script) {
+		final Checkpoint checkpoint;
+		try {
+			checkpoint = mappedScript.resume();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		if (checkpoint == null) {
+			logger.info("Script '" + script + "' has no checkpoint; starting from line 1");
+			return 1;
+		}
+		logger.info("Resuming script '" + script + "' from line " + checkpoint.getLine());
+		inBlockComment = checkpoint.isInBlockComment();
+		return checkpoint.getLine();
+	}
+
+	/**
+	 * Indicates whether the given line of the given script is within a block comment, as it would be
+	 * had the lines before it been executed
+	 *
+	 * @param script the script (required)
+	 * @param mappedScript the script as mapped (can be <code>null</code> if it couldn't be)
+	 * @param line the one-based number of the line
+	 * @return see above
+	 */
+	private boolean isInBlockComment(final File script, final MappedScript mappedScript, final int line) {
+		final InputStream inputStream = mappedScript == null ? openScript(script) : mappedScript.openStream(1);
+		final BufferedReader in = new BufferedReader(new InputStreamReader(inputStream));
+		try {
+			final ScriptComments comments = new ScriptComments(inBlockComment);
+			String text;
+			for (int i = 1; i < line && (text = in.readLine()) != null; i++) {
+				comments.getCommandText(text);
+			}
+			return comments.isInBlockComment();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			IOUtils.closeQuietly(inputStream, in);
+		}
+	}
+
+	/**
+	 * Records the line from which the given script can be resumed if it failed, or discards any
+	 * such record if it completed
+	 */
+	private void updateCheckpoint(final MappedScript mappedScript, final boolean complete, final int failedLine) {
+		if (complete) {
+			mappedScript.deleteCheckpoint();
+		} else if (failedLine > 0) {
+			try {
+				mappedScript.writeCheckpoint(failedLine, inBlockComment);
+				logger.info("Script failed at line " + failedLine + "; once fixed, add --resume to continue from there");
+			} catch (IOException e) {
+				logger.warning("Could not record the line at which the script failed: " + e.getMessage());
+			}
+		}
+	}
+
+	private Map<String, PreparedCommand> newPreparedCommandCache() {
+		return new LinkedHashMap<String, PreparedCommand>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(final Entry<String, PreparedCommand> eldest) {
+				return size() > MAX_PREPARED_COMMANDS;
+			}
+		};
+	}
+
 	/**
 	 * Opens the given script for reading
 	 * 
@@ -158,21 +436,7 @@ public abstract class AbstractShell extends AbstractShellStatusPublisher impleme
 		// Another command was attempted
 		setShellStatus(ShellStatus.Status.PARSING);
 
-		final ExecutionStrategy executionStrategy = getExecutionStrategy();
-		boolean flashedMessage = false;
-		while (executionStrategy == null || !executionStrategy.isReadyForCommands()) {
-			// Wait
-			try {
-				Thread.sleep(500);
-			} catch (InterruptedException ignore) {}
-			if (!flashedMessage) {
-				flash(Level.INFO, "Please wait - still loading", MY_SLOT);
-				flashedMessage = true;
-			}
-		}
-		if (flashedMessage) {
-			flash(Level.INFO, "", MY_SLOT);
-		}
+		final ExecutionStrategy executionStrategy = awaitExecutionStrategy();
 
 		ParseResult parseResult = null;
 		try {
@@ -205,13 +469,29 @@ public abstract class AbstractShell extends AbstractShellStatusPublisher impleme
 				setShellStatus(Status.EXECUTION_SUCCESS);
 				return true;
 			}
-			parseResult = getParser().parse(line);
+			final ScriptProfiler profiler = ScriptProfiler.current();
+			long started = profiler == null ? 0 : System.nanoTime();
+			parseResult = parse(line);
+			if (profiler != null) {
+				profiler.parsed(parseResult, System.nanoTime() - started);
+			}
 			if (parseResult == null) {
 				return false;
 			}
 
 			setShellStatus(Status.EXECUTING);
-			Object result = executionStrategy.execute(parseResult);
+			if (profiler != null) {
+				started = System.nanoTime();
+			}
+			Object result;
+			try {
+				result = executionStrategy.execute(parseResult);
+			} finally {
+				if (profiler != null) {
+					profiler.executed(System.nanoTime() - started);
+					started = System.nanoTime();
+				}
+			}
 			setShellStatus(Status.EXECUTION_RESULT_PROCESSING);
 			if (result != null) {
 				if (result instanceof ExitShellRequest) {
@@ -226,6 +506,9 @@ public abstract class AbstractShell extends AbstractShellStatusPublisher impleme
 					logger.info(result.toString());
 				}
 			}
+			if (profiler != null) {
+				profiler.rendered(System.nanoTime() - started);
+			}
 
 			logCommandIfRequired(line, true);
 			setShellStatus(Status.EXECUTION_SUCCESS, line, parseResult);
@@ -242,6 +525,77 @@ public abstract class AbstractShell extends AbstractShellStatusPublisher impleme
 		}
 	}
 
+	/**
+	 * Waits until there's an execution strategy that's ready for commands, flashing a message if this
+	 * takes a while
+	 *
+	 * @return a non-<code>null</code> execution strategy
+	 */
+	private ExecutionStrategy awaitExecutionStrategy() {
+		final long flashAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(LOADING_MESSAGE_DELAY);
+		boolean flashedMessage = false;
+		// The strategy is read each time, as it might not have been provided yet
+		ExecutionStrategy executionStrategy;
+		while ((executionStrategy = getExecutionStrategy()) == null || !executionStrategy.isReadyForCommands()) {
+			final long untilFlash = TimeUnit.NANOSECONDS.toMillis(flashAt - System.nanoTime());
+			final long timeout = flashedMessage || untilFlash <= 0 ? LOADING_MESSAGE_DELAY : untilFlash;
+			try {
+				if (executionStrategy instanceof AwaitableExecutionStrategy) {
+					((AwaitableExecutionStrategy) executionStrategy).awaitReadyForCommands(timeout, TimeUnit.MILLISECONDS);
+				} else {
+					Thread.sleep(Math.min(timeout, READINESS_POLL_INTERVAL));
+				}
+			} catch (InterruptedException ignore) {}
+			if (!flashedMessage && System.nanoTime() - flashAt >= 0) {
+				flash(Level.INFO, "Please wait - still loading", MY_SLOT);
+				flashedMessage = true;
+			}
+		}
+		if (flashedMessage) {
+			flash(Level.INFO, "", MY_SLOT);
+		}
+		return executionStrategy;
+	}
+
+	/**
+	 * Parses the given line. Within a script, the command at the start of each line is prepared once
+	 * and reused by later lines that start the same way, so that only their options need parsing; and
+	 * within a pipelined or compiled script, the line might already have been compiled, so that it
+	 * only needs binding.
+	 *
+	 * @param line the line to parse (required)
+	 * @return <code>null</code> if the line couldn't be parsed
+	 */
+	private ParseResult parse(final String line) {
+		final ScriptLine scriptLine = readAheadLine.get();
+		if (scriptLine != null) {
+			// Only the script line itself can use this, not any command it leads to executing
+			readAheadLine.set(null);
+			if (scriptLine.isCompiled(line)) {
+				return scriptLine.bind();
+			}
+		}
+		return parse(line, preparedCommands.get());
+	}
+
+	private ParseResult parse(final String line, final Map<String, PreparedCommand> scriptCommands) {
+		if (scriptCommands == null) {
+			return getParser().parse(line);
+		}
+		final int firstOption = line.indexOf(" --");
+		final String template = firstOption < 0 ? line : line.substring(0, firstOption);
+		PreparedCommand command = scriptCommands.get(template);
+		if (command == null && !scriptCommands.containsKey(template)) {
+			// Remember failures too, so that lines that can't be prepared are only tried once
+			command = getParser().prepare(template);
+			scriptCommands.put(template, command);
+		}
+		if (command == null) {
+			return getParser().parse(line);
+		}
+		return command.bind(firstOption < 0 ? "" : line.substring(firstOption + 1));
+	}
+
 	/**
 	 * Allows a subclass to log the execution of a well-formed command. This is invoked after a command
 	 * has completed, and indicates whether the command returned normally or returned an exception. Note
@@ -0,0 +1,155 @@
+package org.springframework.roo.shell;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.roo.shell.event.CommandAvailabilityProvider;
+
+/**
+ * A {@link CliAvailabilityIndicator} method bound to its {@link CommandMarker}, which remembers the
+ * method's result where that's allowed, and records how long the method takes to evaluate.
+ *
+ * <p>
+ * The result is remembered until {@link #invalidate()} is called if the marker is a
+ * {@link CommandAvailabilityProvider}, and for no longer than {@link CliAvailabilityIndicator#timeToLive()}
+ * if that's given; otherwise the method is invoked every time. Instances are created when their marker
+ * is added to the {@link SimpleParser}, and are shared by every registry snapshot that contains it.
+ */
+final class AvailabilityIndicator {
+
+	// Fields
+	private final AtomicInteger generation = new AtomicInteger();
+	private final AtomicLong cacheHits = new AtomicLong();
+	private final AtomicLong evaluations = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final boolean cacheable;
+	private final CommandInvoker invoker;
+	private final long timeToLiveNanos; // zero if the result doesn't expire
+	private final String[] commands;
+	private volatile Result cached;
+
+	/**
+	 * Constructor
+	 *
+	 * @param method the {@link CliAvailabilityIndicator} method (required)
+	 * @param target the command marker that declares it (required)
+	 */
+	AvailabilityIndicator(final Method method, final CommandMarker target) {
+		final CliAvailabilityIndicator annotation = method.getAnnotation(CliAvailabilityIndicator.class);
+		this.commands = annotation.value();
+		this.invoker = new CommandInvoker(method, target);
+		this.timeToLiveNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(annotation.timeToLive(), 0));
+		this.cacheable = timeToLiveNanos > 0 || target instanceof CommandAvailabilityProvider;
+	}
+
+	/**
+	 * Indicates whether this indicator's commands are available, reusing the last result if allowed
+	 *
+	 * @return <code>false</code> if the method returned <code>false</code> or failed
+	 */
+	boolean isAvailable() {
+		if (!cacheable) {
+			return evaluate(System.nanoTime());
+		}
+		final long now = System.nanoTime();
+		final int currentGeneration = generation.get();
+		final Result result = cached;
+		if (result != null && result.generation == currentGeneration && (timeToLiveNanos == 0 || now - result.evaluatedAt < timeToLiveNanos)) {
+			cacheHits.incrementAndGet();
+			return result.available;
+		}
+		final boolean available = evaluate(now);
+		// If invalidated while evaluating, this result is stored under the old generation and so never reused
+		cached = new Result(available, now, currentGeneration);
+		return available;
+	}
+
+	private boolean evaluate(final long start) {
+		boolean available;
+		try {
+			available = (Boolean) invoker.invoke();
+		} catch (Exception e) {
+			available = false;
+		}
+		final long elapsed = System.nanoTime() - start;
+		evaluations.incrementAndGet();
+		totalNanos.addAndGet(elapsed);
+		long max = maxNanos.get();
+		while (elapsed > max && !maxNanos.compareAndSet(max, elapsed)) {
+			max = maxNanos.get();
+		}
+		return available;
+	}
+
+	/**
+	 * Discards any remembered result, so that the method is invoked the next time it's needed
+	 */
+	void invalidate() {
+		generation.incrementAndGet();
+		cached = null;
+	}
+
+	/**
+	 * Returns the commands whose availability this indicator represents
+	 *
+	 * @return a non-empty array; callers must not modify it
+	 */
+	String[] getCommands() {
+		return commands;
+	}
+
+	Object getTarget() {
+		return invoker.getTarget();
+	}
+
+	Method getMethod() {
+		return invoker.getMethod();
+	}
+
+	boolean isCacheable() {
+		return cacheable;
+	}
+
+	long getTimeToLive(final TimeUnit unit) {
+		return unit.convert(timeToLiveNanos, TimeUnit.NANOSECONDS);
+	}
+
+	long getCacheHits() {
+		return cacheHits.get();
+	}
+
+	long getEvaluations() {
+		return evaluations.get();
+	}
+
+	long getMaxTime(final TimeUnit unit) {
+		return unit.convert(maxNanos.get(), TimeUnit.NANOSECONDS);
+	}
+
+	long getTotalTime(final TimeUnit unit) {
+		return unit.convert(totalNanos.get(), TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public String toString() {
+		return invoker.toString();
+	}
+
+	/**
+	 * A remembered result.
+	 */
+	private static class Result {
+		final boolean available;
+		final int generation;
+		final long evaluatedAt;
+
+		Result(final boolean available, final long evaluatedAt, final int generation) {
+			this.available = available;
+			this.evaluatedAt = evaluatedAt;
+			this.generation = generation;
+		}
+	}
+}
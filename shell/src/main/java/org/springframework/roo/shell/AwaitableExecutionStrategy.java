@@ -0,0 +1,26 @@
+package org.springframework.roo.shell;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An {@link ExecutionStrategy} that can notify a waiting {@link Shell} as soon as it becomes ready
+ * for commands, instead of the shell having to poll {@link #isReadyForCommands()}.
+ *
+ * <p>
+ * A typical implementation counts down a {@link java.util.concurrent.CountDownLatch} once startup
+ * has completed, and awaits that latch here.
+ *
+ * @since 1.2.1
+ */
+public interface AwaitableExecutionStrategy extends ExecutionStrategy {
+
+	/**
+	 * Waits until this strategy is ready for commands, or the given time has elapsed
+	 *
+	 * @param timeout the maximum time to wait
+	 * @param unit the unit of the timeout (required)
+	 * @return whether this strategy is now ready for commands
+	 * @throws InterruptedException if the current thread is interrupted while waiting
+	 */
+	boolean awaitReadyForCommands(long timeout, TimeUnit unit) throws InterruptedException;
+}
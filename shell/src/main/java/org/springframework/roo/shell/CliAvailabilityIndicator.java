@@ -7,6 +7,7 @@ import java.lang.annotation.Target;
 
 import org.springframework.roo.shell.CliAvailabilityIndicator;
 import org.springframework.roo.shell.CliCommand;
+import org.springframework.roo.shell.event.CommandAvailabilityProvider;
 
 
 /**
@@ -27,6 +28,13 @@ import org.springframework.roo.shell.CliCommand;
  * aliases (ie by using an array for {@link CliCommand#value()}), only one of the commands
  * need to be specified in the {@link CliAvailabilityIndicator} annotation.
  *
+ * <p>
+ * By default the method is invoked every time the parser needs to know whether its commands are
+ * available. If the declaring {@link CommandMarker} implements {@link CommandAvailabilityProvider},
+ * the parser instead remembers the result until the marker reports a change. Indicators whose
+ * markers can't report changes can still have their result remembered for a short while, via
+ * {@link #timeToLive()}.
+ *
  * @author Ben Alex
  * @since 1.0
  */
@@ -38,4 +46,11 @@ public @interface CliAvailabilityIndicator {
 	 * @return the name of the command or commands that this availability indicator represents
 	 */
 	String[] value();
+
+	/**
+	 * @return the number of milliseconds for which the parser may reuse this indicator's result before
+	 * invoking it again (zero, the default, means the result is only reused if the declaring
+	 * {@link CommandMarker} is a {@link CommandAvailabilityProvider}, and then until it reports a change)
+	 */
+	long timeToLive() default 0;
 }
@@ -0,0 +1,238 @@
+package org.springframework.roo.shell;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.springframework.roo.support.util.Assert;
+import org.springframework.roo.support.util.StringUtils;
+
+/**
+ * An immutable description of a {@link CliCommand} method, built once when its {@link CommandMarker}
+ * is added to the {@link SimpleParser}, so that parsing, completion and help need not use reflection
+ * (or the annotation proxies) each time they run.
+ */
+final class CommandDescriptor {
+
+	// Fields
+	private final Map<String, Option> optionsByKey;
+	private final List<Option> options;
+	private final CommandInvoker invoker;
+	private final MethodTarget methodTarget;
+	private final String help;
+	private final String[] values;
+	private final String[][] words; // the words of each value
+
+	/**
+	 * Constructor
+	 *
+	 * @param method the {@link CliCommand} method (required)
+	 * @param target the object on which the method is to be invoked (required)
+	 */
+	CommandDescriptor(final Method method, final CommandMarker target) {
+		final CliCommand cliCommand = method.getAnnotation(CliCommand.class);
+		Assert.notNull(cliCommand, "CliCommand unavailable for '" + method.toGenericString() + "'");
+		this.methodTarget = new MethodTarget(method, target);
+		this.invoker = new CommandInvoker(method, target);
+		this.values = cliCommand.value();
+		this.words = new String[values.length][];
+		for (int i = 0; i < values.length; i++) {
+			this.words[i] = StringUtils.delimitedListToStringArray(values[i], " ");
+		}
+		this.help = cliCommand.help();
+
+		final Class<?>[] parameterTypes = method.getParameterTypes();
+		final Annotation[][] parameterAnnotations = method.getParameterAnnotations();
+		final List<Option> options = new ArrayList<Option>(parameterTypes.length);
+		final Map<String, Option> optionsByKey = new TreeMap<String, Option>(String.CASE_INSENSITIVE_ORDER);
+		for (int i = 0; i < parameterTypes.length; i++) {
+			CliOption cliOption = null;
+			for (final Annotation annotation : parameterAnnotations[i]) {
+				if (annotation instanceof CliOption) {
+					cliOption = (CliOption) annotation;
+				}
+			}
+			Assert.notNull(cliOption, "CliOption not found for parameter '" + Arrays.toString(parameterAnnotations[i]) + "' of '" + method.toGenericString() + "'");
+			final Option option = new Option(cliOption, parameterTypes[i]);
+			options.add(option);
+			for (final String key : option.getKeys()) {
+				optionsByKey.put(key, option);
+			}
+		}
+		this.options = Collections.unmodifiableList(options);
+		this.optionsByKey = Collections.unmodifiableMap(optionsByKey);
+	}
+
+	/**
+	 * Returns the option with the given key, ignoring case
+	 *
+	 * @param key the key to look up (can be blank for the default option)
+	 * @return <code>null</code> if there's no such option
+	 */
+	Option getOption(final String key) {
+		return optionsByKey.get(key);
+	}
+
+	/**
+	 * Returns the options of this command
+	 *
+	 * @return a non-<code>null</code> list, in order of the method's parameters
+	 */
+	List<Option> getOptions() {
+		return options;
+	}
+
+	/**
+	 * Returns the method and target of this command
+	 *
+	 * @return a non-<code>null</code> target with no remaining buffer or key
+	 */
+	MethodTarget getMethodTarget() {
+		return methodTarget;
+	}
+
+	/**
+	 * Returns the invoker of this command's method, bound to its target
+	 *
+	 * @return a non-<code>null</code> invoker
+	 */
+	CommandInvoker getInvoker() {
+		return invoker;
+	}
+
+	Method getMethod() {
+		return methodTarget.getMethod();
+	}
+
+	Object getTarget() {
+		return methodTarget.getTarget();
+	}
+
+	String getHelp() {
+		return help;
+	}
+
+	/**
+	 * Returns the command strings by which this command can be invoked
+	 *
+	 * @return a non-empty array; callers must not modify it
+	 */
+	String[] getValues() {
+		return values;
+	}
+
+	/**
+	 * Returns the words of the given command string, split once when this command was registered
+	 *
+	 * @param value one of this command's {@link #getValues() values}
+	 * @return <code>null</code> if that isn't one of them; callers must not modify the array
+	 */
+	String[] getWords(final String value) {
+		for (int i = 0; i < values.length; i++) {
+			if (values[i].equals(value)) {
+				return words[i];
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public boolean equals(final Object other) {
+		return other instanceof CommandDescriptor && methodTarget.equals(((CommandDescriptor) other).getMethodTarget());
+	}
+
+	@Override
+	public int hashCode() {
+		return methodTarget.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return methodTarget.toString();
+	}
+
+	/**
+	 * The {@link CliOption} of one parameter of a command, with its attributes copied out of the annotation.
+	 */
+	static final class Option {
+
+		// Fields
+		private final boolean mandatory;
+		private final boolean systemProvided;
+		private final Class<?> type;
+		private final String help;
+		private final String keyList;
+		private final String optionContext;
+		private final String specifiedDefaultValue;
+		private final String unspecifiedDefaultValue;
+		private final String[] keys;
+
+		Option(final CliOption cliOption, final Class<?> type) {
+			this.type = type;
+			this.keys = cliOption.key();
+			this.keyList = StringUtils.arrayToCommaDelimitedString(keys);
+			this.mandatory = cliOption.mandatory();
+			this.systemProvided = cliOption.systemProvided();
+			this.optionContext = cliOption.optionContext();
+			this.help = cliOption.help();
+			this.specifiedDefaultValue = cliOption.specifiedDefaultValue();
+			this.unspecifiedDefaultValue = cliOption.unspecifiedDefaultValue();
+		}
+
+		/**
+		 * Returns the parameter type to which this option's value is converted
+		 *
+		 * @return a non-<code>null</code> type
+		 */
+		Class<?> getType() {
+			return type;
+		}
+
+		/**
+		 * Returns the keys of this option; callers must not modify the returned array
+		 *
+		 * @return a non-empty array
+		 */
+		String[] getKeys() {
+			return keys;
+		}
+
+		/**
+		 * Returns the keys of this option as a comma-delimited list, for use in messages
+		 *
+		 * @return a non-<code>null</code> String
+		 */
+		String getKeyList() {
+			return keyList;
+		}
+
+		boolean isMandatory() {
+			return mandatory;
+		}
+
+		boolean isSystemProvided() {
+			return systemProvided;
+		}
+
+		String getOptionContext() {
+			return optionContext;
+		}
+
+		String getHelp() {
+			return help;
+		}
+
+		String getSpecifiedDefaultValue() {
+			return specifiedDefaultValue;
+		}
+
+		String getUnspecifiedDefaultValue() {
+			return unspecifiedDefaultValue;
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package org.springframework.roo.shell;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
+
+import org.springframework.roo.support.util.Assert;
+
+/**
+ * Invokes a given method on a given object, e.g. a {@link CliCommand} or {@link CliAvailabilityIndicator}
+ * method on its {@link CommandMarker}.
+ *
+ * <p>
+ * {@link SimpleParser} creates one of these for each such method when its {@link CommandMarker} is added,
+ * so that everything that can be worked out about the invocation (including the access checks that
+ * {@link Method#invoke(Object, Object...)} would otherwise repeat) is done once, rather than each time a
+ * command is executed or an availability indicator is consulted.
+ */
+public final class CommandInvoker {
+
+	// Constants
+	private static final Object[] NO_ARGUMENTS = {};
+
+	// Fields
+	private final int parameterCount;
+	private final Method method;
+	private final Object target;
+
+	/**
+	 * Constructor
+	 *
+	 * @param method the method to invoke (required)
+	 * @param target the object on which to invoke it (required)
+	 */
+	public CommandInvoker(final Method method, final Object target) {
+		Assert.notNull(method, "Method required");
+		Assert.notNull(target, "Target required");
+		this.method = method;
+		this.parameterCount = method.getParameterTypes().length;
+		this.target = target;
+		if (!method.isAccessible()) {
+			try {
+				method.setAccessible(true);
+			} catch (SecurityException ignored) {
+				// The access checks will be done on each invocation instead
+			}
+		}
+	}
+
+	/**
+	 * Invokes a method that has no parameters on the target
+	 *
+	 * @return the method's return value (<code>null</code> for void methods)
+	 * @throws RuntimeException if the method threw one, or wrapping any checked exception it threw
+	 */
+	public Object invoke() {
+		return invoke(NO_ARGUMENTS);
+	}
+
+	/**
+	 * Invokes the method on the target with the given arguments
+	 *
+	 * @param arguments the arguments (can be <code>null</code> if the method has no parameters)
+	 * @return the method's return value (<code>null</code> for void methods)
+	 * @throws RuntimeException if the method threw one, or wrapping any checked exception it threw
+	 */
+	public Object invoke(final Object[] arguments) {
+		try {
+			return method.invoke(target, arguments);
+		} catch (InvocationTargetException e) {
+			final Throwable cause = e.getTargetException();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new UndeclaredThrowableException(cause);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException("Could not access method '" + method.toGenericString() + "'", e);
+		}
+	}
+
+	public Method getMethod() {
+		return method;
+	}
+
+	public Object getTarget() {
+		return target;
+	}
+
+	/**
+	 * Returns the number of arguments the method takes
+	 *
+	 * @return zero or more
+	 */
+	public int getParameterCount() {
+		return parameterCount;
+	}
+
+	@Override
+	public String toString() {
+		return method.toGenericString();
+	}
+}
@@ -0,0 +1,228 @@
+package org.springframework.roo.shell;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.springframework.roo.support.util.Assert;
+import org.springframework.roo.support.util.StringUtils;
+
+/**
+ * An immutable word-level trie of command strings (e.g. "project setup"), used by {@link SimpleParser}
+ * to narrow down the commands that could match a given buffer without visiting every registered command.
+ *
+ * <p>
+ * Each word of the buffer is treated as a prefix of the corresponding command word, as per
+ * {@link SimpleParser#matchCommand(String, String[], boolean)}. The candidates returned are a
+ * superset of the commands that {@link SimpleParser#matchCommand(String, String[], boolean)}
+ * accepts, so callers must still confirm each candidate. The cost of a lookup depends on the length of the buffer and the
+ * number of candidates, not on the number of registered commands.
+ *
+ * <p>
+ * Adding or removing a command returns a new trie that shares all the nodes off the changed path
+ * with this one, so instances can be read from any number of threads without synchronisation.
+ *
+ * @param <T> the type of value registered against each command
+ */
+final class CommandTrie<T> {
+
+	// Fields
+	private final Node<T> root;
+
+	/**
+	 * Constructor for an empty trie
+	 */
+	CommandTrie() {
+		this(new Node<T>(null, new TreeMap<String, Node<T>>(), Collections.<T> emptySet()));
+	}
+
+	private CommandTrie(final Node<T> root) {
+		this.root = root;
+	}
+
+	/**
+	 * Returns a trie that also has the given value registered against the given command
+	 *
+	 * @param command the full command, e.g. "project setup" (required)
+	 * @param value the value to register (required)
+	 * @return a non-<code>null</code> trie
+	 */
+	CommandTrie<T> with(final String command, final T value) {
+		Assert.hasText(command, "Command required");
+		Assert.notNull(value, "Value required");
+		return new CommandTrie<T>(with(root, StringUtils.delimitedListToStringArray(command, " "), 0, command, value));
+	}
+
+	private Node<T> with(final Node<T> node, final String[] words, final int index, final String command, final T value) {
+		if (index == words.length) {
+			final Set<T> values = new LinkedHashSet<T>(node.values);
+			values.add(value);
+			return new Node<T>(command, node.children, Collections.unmodifiableSet(values));
+		}
+		Node<T> child = node.children.get(words[index]);
+		if (child == null) {
+			child = new Node<T>(null, new TreeMap<String, Node<T>>(), Collections.<T> emptySet());
+		}
+		final SortedMap<String, Node<T>> children = new TreeMap<String, Node<T>>(node.children);
+		children.put(words[index], with(child, words, index + 1, command, value));
+		return new Node<T>(node.command, children, node.values);
+	}
+
+	/**
+	 * Returns a trie without the given value registered against the given command, pruning any
+	 * nodes left empty
+	 *
+	 * @param command the full command the value was registered against
+	 * @param value the value to remove
+	 * @return a non-<code>null</code> trie (this one if the value wasn't registered)
+	 */
+	CommandTrie<T> without(final String command, final T value) {
+		final Node<T> newRoot = without(root, StringUtils.delimitedListToStringArray(command, " "), 0, value);
+		return newRoot == root ? this : new CommandTrie<T>(newRoot);
+	}
+
+	private Node<T> without(final Node<T> node, final String[] words, final int index, final T value) {
+		if (index == words.length) {
+			if (!node.values.contains(value)) {
+				return node;
+			}
+			final Set<T> values = new LinkedHashSet<T>(node.values);
+			values.remove(value);
+			return new Node<T>(values.isEmpty() ? null : node.command, node.children, Collections.unmodifiableSet(values));
+		}
+		final Node<T> child = node.children.get(words[index]);
+		if (child == null) {
+			return node;
+		}
+		final Node<T> newChild = without(child, words, index + 1, value);
+		if (newChild == child) {
+			return node;
+		}
+		final SortedMap<String, Node<T>> children = new TreeMap<String, Node<T>>(node.children);
+		if (newChild.isEmpty()) {
+			children.remove(words[index]);
+		} else {
+			children.put(words[index], newChild);
+		}
+		return new Node<T>(node.command, children, node.values);
+	}
+
+	/**
+	 * Returns the values registered against exactly the given command
+	 *
+	 * @param command the full command, e.g. "project setup" (required)
+	 * @return a non-<code>null</code> set, empty if no such command is registered
+	 */
+	Set<T> get(final String command) {
+		Assert.notNull(command, "Command required");
+		Node<T> node = root;
+		for (final String word : StringUtils.delimitedListToStringArray(command, " ")) {
+			node = node.children.get(word);
+			if (node == null) {
+				return Collections.emptySet();
+			}
+		}
+		return command.equals(node.command) ? node.values : Collections.<T> emptySet();
+	}
+
+	/**
+	 * Returns every registered command
+	 *
+	 * @return a non-<code>null</code> map of command to the values registered against it
+	 */
+	Map<String, Set<T>> getAll() {
+		final Map<String, Set<T>> result = new LinkedHashMap<String, Set<T>>();
+		collectSubtree(root, result);
+		return result;
+	}
+
+	/**
+	 * Locates the commands that could match the given buffer.
+	 *
+	 * @param buffer the user's input (required)
+	 * @param partial whether commands only partially specified by the buffer should be included
+	 * (as when completing), or only those whose words have all been given (as when parsing)
+	 * @return a non-<code>null</code> map of candidate command to the values registered against it
+	 */
+	Map<String, Set<T>> findCandidates(final String buffer, final boolean partial) {
+		Assert.notNull(buffer, "Buffer required");
+		if ("".equals(buffer.trim())) {
+			// Every command matches an empty buffer
+			return getAll();
+		}
+
+		final Map<String, Set<T>> result = new LinkedHashMap<String, Set<T>>();
+		List<Node<T>> frontier = Collections.singletonList(root);
+		for (final String rawWord : buffer.split(" ")) {
+			// Words are separated by spaces, but other whitespace around them is ignored, as by SimpleParser.matchCommand
+			final String word = rawWord.trim();
+			final List<Node<T>> next = new ArrayList<Node<T>>();
+			for (final Node<T> node : frontier) {
+				// A command completed by the earlier words matches, with this word starting its options
+				addIfTerminal(node, result);
+				if ("".equals(word)) {
+					// An empty word (ie a double or leading space) never matches a command word
+					continue;
+				}
+				for (final Entry<String, Node<T>> child : node.children.tailMap(word).entrySet()) {
+					if (!child.getKey().startsWith(word)) {
+						break;
+					}
+					next.add(child.getValue());
+				}
+			}
+			if (next.isEmpty()) {
+				return result;
+			}
+			frontier = next;
+		}
+
+		for (final Node<T> node : frontier) {
+			if (partial) {
+				collectSubtree(node, result);
+			} else {
+				addIfTerminal(node, result);
+			}
+		}
+		return result;
+	}
+
+	private void addIfTerminal(final Node<T> node, final Map<String, Set<T>> result) {
+		if (node.command != null) {
+			result.put(node.command, node.values);
+		}
+	}
+
+	private void collectSubtree(final Node<T> node, final Map<String, Set<T>> result) {
+		addIfTerminal(node, result);
+		for (final Node<T> child : node.children.values()) {
+			collectSubtree(child, result);
+		}
+	}
+
+	/**
+	 * A node of the trie; never modified once constructed.
+	 */
+	private static class Node<T> {
+		final SortedMap<String, Node<T>> children;
+		final Set<T> values; // unmodifiable, as it's handed out to callers
+		final String command; // non-null if at least one value is registered against this node
+
+		Node(final String command, final SortedMap<String, Node<T>> children, final Set<T> values) {
+			this.command = command;
+			this.children = children;
+			this.values = values;
+		}
+
+		boolean isEmpty() {
+			return command == null && children.isEmpty();
+		}
+	}
+}
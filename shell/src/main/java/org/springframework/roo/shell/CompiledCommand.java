@@ -0,0 +1,87 @@
+package org.springframework.roo.shell;
+
+import java.util.Arrays;
+
+import org.springframework.roo.support.util.Assert;
+
+/**
+ * A command line that has been validated by a {@link Parser} and reduced to the command it names and
+ * the raw values of the options it gives, so that it can be stored and later bound into a
+ * {@link ParseResult} without tokenizing or matching it again.
+ *
+ * <p>
+ * Option values are converted only when the command is bound, as conversion can depend on the
+ * effects of earlier commands.
+ *
+ * @see Parser#compile(String)
+ * @see Parser#bind(CompiledCommand)
+ * @since 1.2.1
+ */
+public final class CompiledCommand {
+
+	// Fields
+	private final String command;
+	private final String[] keys;
+	private final String[] values;
+
+	/**
+	 * Constructor
+	 *
+	 * @param command the command as registered, e.g. "entity jpa" (required)
+	 * @param keys the keys of the options given, in order; "" for the default option (required)
+	 * @param values the raw value of each of those options (required)
+	 */
+	public CompiledCommand(final String command, final String[] keys, final String[] values) {
+		Assert.hasText(command, "Command required");
+		Assert.notNull(keys, "Keys required");
+		Assert.notNull(values, "Values required");
+		Assert.isTrue(keys.length == values.length, "Expected a value for each of the " + keys.length + " option(s), but there are " + values.length);
+		this.command = command;
+		this.keys = keys.clone();
+		this.values = values.clone();
+	}
+
+	/**
+	 * Returns the command, as registered
+	 *
+	 * @return a non-blank String
+	 */
+	public String getCommand() {
+		return command;
+	}
+
+	public int getOptionCount() {
+		return keys.length;
+	}
+
+	public String getKey(final int index) {
+		return keys[index];
+	}
+
+	public String getValue(final int index) {
+		return values[index];
+	}
+
+	@Override
+	public boolean equals(final Object other) {
+		if (!(other instanceof CompiledCommand)) {
+			return false;
+		}
+		final CompiledCommand otherCommand = (CompiledCommand) other;
+		return command.equals(otherCommand.command) && Arrays.equals(keys, otherCommand.keys) && Arrays.equals(values, otherCommand.values);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * (31 * command.hashCode() + Arrays.hashCode(keys)) + Arrays.hashCode(values);
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder(command);
+		for (int i = 0; i < keys.length; i++) {
+			sb.append(keys[i].length() == 0 ? " " : " --" + keys[i] + " ").append(values[i]);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,284 @@
+package org.springframework.roo.shell;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.roo.support.util.Assert;
+import org.springframework.roo.support.util.IOUtils;
+
+/**
+ * The binary form of a script written by "script compile".
+ *
+ * <p>
+ * It holds every line of the script with its number, and for each line that could be compiled, the
+ * {@link CompiledCommand} it reduced to. It also records a fingerprint of the parser's commands and
+ * converters at the time; the compiled commands are only used while the parser's fingerprint still
+ * matches, otherwise the lines are parsed as text. The size and modification time of the source
+ * script are recorded too, so that a compiled form found alongside a script is only used in its
+ * place if the script hasn't changed since.
+ */
+final class CompiledScript {
+
+	// Constants
+	static final String SUFFIX = ".compiled";
+	private static final int MAGIC = 0x424E5343; // "BNSC"
+	private static final int VERSION = 1;
+
+	// Fields
+	private final List<Line> lines = new ArrayList<Line>();
+	private final long sourceLastModified;
+	private final long sourceLength;
+	private final String fingerprint;
+
+	/**
+	 * Constructor for a script about to be compiled
+	 *
+	 * @param fingerprint the fingerprint of the parser compiling it (required)
+	 * @param source the script being compiled (required)
+	 */
+	CompiledScript(final String fingerprint, final File source) {
+		this(fingerprint, source.length(), source.lastModified());
+	}
+
+	private CompiledScript(final String fingerprint, final long sourceLength, final long sourceLastModified) {
+		Assert.hasText(fingerprint, "Fingerprint required");
+		this.fingerprint = fingerprint;
+		this.sourceLastModified = sourceLastModified;
+		this.sourceLength = sourceLength;
+	}
+
+	/**
+	 * Indicates whether the given file is a compiled script
+	 *
+	 * @param file the file to check (required)
+	 * @return <code>false</code> if it's anything else, or doesn't exist
+	 */
+	static boolean isCompiled(final File file) {
+		if (!file.isFile() || file.length() < 4) {
+			return false;
+		}
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new FileInputStream(file));
+			return in.readInt() == MAGIC;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	/**
+	 * Returns the compiled form of the given script that was written alongside it, if it's still up to date
+	 *
+	 * @param script the script (required)
+	 * @return <code>null</code> if there's no such file, or the script has changed since it was compiled
+	 * @throws IOException if the compiled form couldn't be read
+	 */
+	static CompiledScript findCompiledForm(final File script) throws IOException {
+		final File compiled = new File(script.getPath() + SUFFIX);
+		if (!script.isFile() || !isCompiled(compiled)) {
+			return null;
+		}
+		final CompiledScript compiledScript = read(compiled);
+		if (compiledScript.sourceLength != script.length() || compiledScript.sourceLastModified != script.lastModified()) {
+			return null;
+		}
+		return compiledScript;
+	}
+
+	/**
+	 * Reads the given compiled script
+	 *
+	 * @param file the file to read (required)
+	 * @return a non-<code>null</code> instance
+	 * @throws IOException if the file couldn't be read, or isn't a compiled script
+	 */
+	static CompiledScript read(final File file) throws IOException {
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("'" + file + "' is not a compiled script, or was compiled by another version of the shell");
+			}
+			final CompiledScript compiledScript = new CompiledScript(readString(in), in.readLong(), in.readLong());
+			final String[] commands = new String[in.readInt()];
+			for (int i = 0; i < commands.length; i++) {
+				commands[i] = readString(in);
+			}
+			final int lineCount = in.readInt();
+			for (int i = 0; i < lineCount; i++) {
+				final int number = in.readInt();
+				final String line = readString(in);
+				final int command = in.readInt();
+				if (command < 0) {
+					compiledScript.lines.add(new Line(number, line, null, null));
+					continue;
+				}
+				final String text = readString(in);
+				final String[] keys = new String[in.readInt()];
+				final String[] values = new String[keys.length];
+				for (int j = 0; j < keys.length; j++) {
+					keys[j] = readString(in);
+					values[j] = readString(in);
+				}
+				compiledScript.lines.add(new Line(number, line, text, new CompiledCommand(commands[command], keys, values)));
+			}
+			return compiledScript;
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	/**
+	 * Adds a line that wasn't compiled (e.g. a comment), and will be executed as text
+	 *
+	 * @param line the line as read (required)
+	 */
+	void addLine(final String line) {
+		lines.add(new Line(lines.size() + 1, line, null, null));
+	}
+
+	/**
+	 * Adds a line that was compiled
+	 *
+	 * @param line the line as read (required)
+	 * @param text the text that was compiled, i.e. the line minus any comments (required)
+	 * @param command the command it compiled to (required)
+	 */
+	void addLine(final String line, final String text, final CompiledCommand command) {
+		lines.add(new Line(lines.size() + 1, line, text, command));
+	}
+
+	/**
+	 * Returns the number of lines that were compiled
+	 *
+	 * @return zero or more
+	 */
+	int getCompiledLineCount() {
+		int count = 0;
+		for (final Line line : lines) {
+			if (line.command != null) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	String getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * Writes this script to the given file
+	 *
+	 * @param file the file to write (required)
+	 * @throws IOException if it couldn't be written
+	 */
+	void write(final File file) throws IOException {
+		// Each distinct command is written once, and referred to by its index
+		final Map<String, Integer> commandIndexes = new HashMap<String, Integer>();
+		final List<String> commands = new ArrayList<String>();
+		for (final Line line : lines) {
+			if (line.command != null && !commandIndexes.containsKey(line.command.getCommand())) {
+				commandIndexes.put(line.command.getCommand(), commands.size());
+				commands.add(line.command.getCommand());
+			}
+		}
+
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			writeString(out, fingerprint);
+			out.writeLong(sourceLength);
+			out.writeLong(sourceLastModified);
+			out.writeInt(commands.size());
+			for (final String command : commands) {
+				writeString(out, command);
+			}
+			out.writeInt(lines.size());
+			for (final Line line : lines) {
+				out.writeInt(line.number);
+				writeString(out, line.line);
+				if (line.command == null) {
+					out.writeInt(-1);
+					continue;
+				}
+				out.writeInt(commandIndexes.get(line.command.getCommand()));
+				writeString(out, line.text);
+				out.writeInt(line.command.getOptionCount());
+				for (int i = 0; i < line.command.getOptionCount(); i++) {
+					writeString(out, line.command.getKey(i));
+					writeString(out, line.command.getValue(i));
+				}
+			}
+		} finally {
+			IOUtils.closeQuietly(out);
+		}
+	}
+
+	/**
+	 * Returns a reader of this script's lines
+	 *
+	 * @param parser the parser with which to bind the compiled commands, or <code>null</code> to
+	 * have every line parsed as text
+	 * @return a non-<code>null</code> reader
+	 */
+	ScriptReader newReader(final Parser parser) {
+		return new ScriptReader() {
+			private int next;
+
+			@Override
+			ScriptLine next() {
+				if (next == lines.size()) {
+					return null;
+				}
+				final Line line = lines.get(next++);
+				if (parser == null || line.command == null) {
+					return new ScriptLine(line.number, line.line);
+				}
+				return new ScriptLine(line.number, line.line, line.text, line.command, parser);
+			}
+		};
+	}
+
+	// Strings are written as UTF-8 with a four-byte length, as DataOutput#writeUTF is limited to 64KB
+	private static void writeString(final DataOutputStream out, final String string) throws IOException {
+		final byte[] bytes = string.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(final DataInputStream in) throws IOException {
+		final byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	/**
+	 * A line of the script.
+	 */
+	private static class Line {
+		final CompiledCommand command; // null if not compiled
+		final int number;
+		final String line;
+		final String text; // the text that was compiled
+
+		Line(final int number, final String line, final String text, final CompiledCommand command) {
+			this.command = command;
+			this.line = line;
+			this.number = number;
+			this.text = text;
+		}
+	}
+}
@@ -19,6 +19,10 @@ public interface Converter<T> {
 	/**
 	 * Indicates whether this converter supports the given type in the given option context
 	 *
+	 * <p>
+	 * The parser remembers the result until converters are added or removed; a converter whose
+	 * support can otherwise change must be a {@link org.springframework.roo.shell.event.ConverterSupportProvider}.
+	 *
 	 * @param type the type being checked
 	 * @param optionContext a non-<code>null</code> string that customises the
 	 * behaviour of this converter for a given {@link CliOption} of a given
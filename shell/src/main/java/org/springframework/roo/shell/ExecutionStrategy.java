@@ -18,7 +18,8 @@ import org.springframework.roo.shell.Shell;
 public interface ExecutionStrategy {
 
 	/**
-	 * Executes the method indicated by the {@link ParseResult}.
+	 * Executes the method indicated by the {@link ParseResult}. Implementations would normally do so
+	 * via {@link ParseResult#invoke()}, which uses the invoker created when the command was registered.
 	 *
 	 * @param parseResult that should be executed (never presented as null)
 	 * @return an object which will be rendered by the {@link Shell} implementation (may return null)
@@ -0,0 +1,115 @@
+package org.springframework.roo.shell;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Filter;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.springframework.roo.support.util.Assert;
+
+/**
+ * Captures the log records published on the current thread instead of letting the root logger's
+ * handlers output them, so that they can be published later, e.g. by another thread.
+ *
+ * <p>
+ * This works by wrapping the filter of each handler of the root logger, which is where the shell's
+ * output handler is registered, for as long as any thread is capturing; records handled only by
+ * other loggers' handlers aren't captured, nor are those of any handler that doesn't consult its
+ * filter (via {@link Handler#isLoggable(LogRecord)}) before publishing.
+ */
+final class LogCapture {
+
+	// Constants
+	private static final ThreadLocal<List<LogRecord>> CAPTURED = new ThreadLocal<List<LogRecord>>();
+
+	// Fields
+	private static int capturingThreads; // guarded by the class
+
+	/**
+	 * Starts capturing the log records published on the current thread
+	 */
+	static void start() {
+		Assert.isTrue(CAPTURED.get() == null, "Log records are already being captured on this thread");
+		synchronized (LogCapture.class) {
+			capturingThreads++;
+			interceptRootHandlers();
+		}
+		CAPTURED.set(new ArrayList<LogRecord>());
+	}
+
+	/**
+	 * Stops capturing the log records published on the current thread
+	 *
+	 * @return the records captured since {@link #start()}, in the order they were published
+	 */
+	static List<LogRecord> stop() {
+		final List<LogRecord> records = CAPTURED.get();
+		if (records == null) {
+			return Collections.emptyList();
+		}
+		CAPTURED.remove();
+		synchronized (LogCapture.class) {
+			if (--capturingThreads == 0) {
+				restoreRootHandlers();
+			}
+		}
+		return records;
+	}
+
+	/**
+	 * Publishes the given records via the loggers that originally published them
+	 *
+	 * @param records the records to publish (required)
+	 */
+	static void publish(final List<LogRecord> records) {
+		for (final LogRecord record : records) {
+			Logger.getLogger(record.getLoggerName() == null ? "" : record.getLoggerName()).log(record);
+		}
+	}
+
+	private static void interceptRootHandlers() {
+		// Handlers can be replaced at any time (e.g. when the shell starts), so check them all each time
+		for (final Handler handler : Logger.getLogger("").getHandlers()) {
+			if (!(handler.getFilter() instanceof CapturingFilter)) {
+				handler.setFilter(new CapturingFilter(handler.getFilter()));
+			}
+		}
+	}
+
+	private static void restoreRootHandlers() {
+		for (final Handler handler : Logger.getLogger("").getHandlers()) {
+			final Filter filter = handler.getFilter();
+			if (filter instanceof CapturingFilter) {
+				handler.setFilter(((CapturingFilter) filter).delegate);
+			}
+		}
+	}
+
+	private LogCapture() {}
+
+	/**
+	 * Diverts records published on a capturing thread, otherwise delegating to the handler's original filter.
+	 */
+	private static class CapturingFilter implements Filter {
+		private final Filter delegate;
+
+		CapturingFilter(final Filter delegate) {
+			this.delegate = delegate;
+		}
+
+		public boolean isLoggable(final LogRecord record) {
+			final List<LogRecord> records = CAPTURED.get();
+			if (records == null) {
+				return delegate == null || delegate.isLoggable(record);
+			}
+			// Each of the root logger's handlers sees the same record
+			if (records.isEmpty() || records.get(records.size() - 1) != record) {
+				records.add(record);
+			}
+			return false;
+		}
+	}
+}
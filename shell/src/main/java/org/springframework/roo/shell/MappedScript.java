@@ -0,0 +1,293 @@
+package org.springframework.roo.shell;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.util.Properties;
+
+import org.springframework.roo.support.util.Assert;
+import org.springframework.roo.support.util.IOUtils;
+
+/**
+ * A script file that's been memory-mapped, so that it can be read from any line without first
+ * reading the lines before it.
+ *
+ * <p>
+ * The offset of each line is indexed the first time it's needed, by scanning for the same line
+ * terminators as {@link java.io.BufferedReader#readLine()}. A script can also record a checkpoint
+ * (in a file alongside it) from which a later run can resume, by seeking straight to that line.
+ */
+final class MappedScript {
+
+	// Constants
+	private static final String CHECKPOINT_SUFFIX = ".checkpoint";
+	private static final String IN_BLOCK_COMMENT = "inBlockComment";
+	private static final String LAST_MODIFIED = "lastModified";
+	private static final String LENGTH = "length";
+	private static final String LINE = "line";
+	private static final String OFFSET = "offset";
+
+	// Fields
+	private final ByteBuffer buffer;
+	private final File file;
+	private final long lastModified;
+	private boolean indexComplete;
+	private int firstIndexedLine;
+	private int indexedLines;
+	private int[] lineOffsets = new int[256];
+
+	/**
+	 * Maps the given script file into memory
+	 *
+	 * @param file the script file (required)
+	 * @return <code>null</code> if it isn't a file that can be mapped, e.g. it doesn't exist or is in
+	 * an encoding in which line terminators aren't single bytes
+	 * @throws IOException if the file couldn't be mapped
+	 */
+	static MappedScript map(final File file) throws IOException {
+		if (!file.isFile() || !hasSingleByteLineTerminators(Charset.defaultCharset())) {
+			return null;
+		}
+		final long lastModified = file.lastModified();
+		final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			final FileChannel channel = randomAccessFile.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) {
+				return null;
+			}
+			// The mapping remains valid once the channel is closed
+			return new MappedScript(file, lastModified, channel.map(MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			IOUtils.closeQuietly(randomAccessFile);
+		}
+	}
+
+	private static boolean hasSingleByteLineTerminators(final Charset charset) {
+		final ByteBuffer encoded = charset.encode(CharBuffer.wrap("\r\n"));
+		return encoded.remaining() == 2 && encoded.get(0) == '\r' && encoded.get(1) == '\n';
+	}
+
+	private MappedScript(final File file, final long lastModified, final ByteBuffer buffer) {
+		this.buffer = buffer;
+		this.file = file;
+		this.lastModified = lastModified;
+		indexFrom(1, 0);
+	}
+
+	/**
+	 * Restarts the index of line offsets from the given line
+	 */
+	private void indexFrom(final int line, final int offset) {
+		firstIndexedLine = line;
+		lineOffsets[0] = offset;
+		indexedLines = offset < buffer.limit() ? 1 : 0;
+		indexComplete = indexedLines == 0;
+	}
+
+	/**
+	 * Returns the offset of the given line, indexing the lines up to it if necessary
+	 *
+	 * @param line the one-based number of the line; must not precede any line this script was resumed from
+	 * @return -1 if the script has fewer lines
+	 */
+	int getOffset(final int line) {
+		Assert.isTrue(line >= firstIndexedLine, "Line " + line + " precedes the first indexed line " + firstIndexedLine);
+		final int index = line - firstIndexedLine;
+		while (index >= indexedLines && indexNextLine()) {
+			// Keep going
+		}
+		return index < indexedLines ? lineOffsets[index] : -1;
+	}
+
+	private boolean indexNextLine() {
+		if (indexComplete) {
+			return false;
+		}
+		final int limit = buffer.limit();
+		int position = lineOffsets[indexedLines - 1];
+		while (position < limit) {
+			final byte b = buffer.get(position++);
+			if (b == '\n' || b == '\r') {
+				if (b == '\r' && position < limit && buffer.get(position) == '\n') {
+					position++;
+				}
+				if (position == limit) {
+					// A terminator at the end of the script doesn't start another line
+					break;
+				}
+				if (indexedLines == lineOffsets.length) {
+					final int[] newOffsets = new int[indexedLines * 2];
+					System.arraycopy(lineOffsets, 0, newOffsets, 0, indexedLines);
+					lineOffsets = newOffsets;
+				}
+				lineOffsets[indexedLines++] = position;
+				return true;
+			}
+		}
+		indexComplete = true;
+		return false;
+	}
+
+	/**
+	 * Returns a stream of the script from the start of the given line
+	 *
+	 * @param line the one-based number of the first line to read
+	 * @return a non-<code>null</code> stream, which is empty if the script has fewer lines
+	 */
+	InputStream openStream(final int line) {
+		final int offset = getOffset(line);
+		final ByteBuffer stream = buffer.duplicate();
+		stream.position(offset < 0 ? stream.limit() : offset);
+		return new ByteBufferInputStream(stream);
+	}
+
+	/**
+	 * Records that the script should be resumed from the given line, e.g. because that line failed
+	 *
+	 * @param line the one-based number of the line from which to resume
+	 * @param inBlockComment whether that line is within a block comment
+	 * @throws IOException if the checkpoint couldn't be written
+	 */
+	void writeCheckpoint(final int line, final boolean inBlockComment) throws IOException {
+		final Properties checkpoint = new Properties();
+		checkpoint.setProperty(LINE, String.valueOf(line));
+		checkpoint.setProperty(OFFSET, String.valueOf(getOffset(line)));
+		checkpoint.setProperty(LENGTH, String.valueOf(buffer.limit()));
+		checkpoint.setProperty(LAST_MODIFIED, String.valueOf(lastModified));
+		checkpoint.setProperty(IN_BLOCK_COMMENT, String.valueOf(inBlockComment));
+		final OutputStream out = new FileOutputStream(getCheckpointFile());
+		try {
+			checkpoint.store(out, "Checkpoint of " + file.getName());
+		} finally {
+			IOUtils.closeQuietly(out);
+		}
+	}
+
+	/**
+	 * Discards any checkpoint of this script, e.g. because it has now run to the end
+	 */
+	void deleteCheckpoint() {
+		final File checkpointFile = getCheckpointFile();
+		if (checkpointFile.exists() && !checkpointFile.delete()) {
+			checkpointFile.deleteOnExit();
+		}
+	}
+
+	/**
+	 * Moves this script to its checkpoint, if it has one
+	 *
+	 * @return <code>null</code> if there's no checkpoint
+	 * @throws IOException if the checkpoint couldn't be read
+	 * @throws IllegalStateException if the script has changed since the checkpoint was written
+	 */
+	Checkpoint resume() throws IOException {
+		final File checkpointFile = getCheckpointFile();
+		if (!checkpointFile.isFile()) {
+			return null;
+		}
+		final Properties properties = new Properties();
+		final InputStream in = new FileInputStream(checkpointFile);
+		try {
+			properties.load(in);
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+
+		final int line;
+		final int offset;
+		final long length;
+		final long modified;
+		try {
+			line = Integer.parseInt(properties.getProperty(LINE));
+			offset = Integer.parseInt(properties.getProperty(OFFSET));
+			length = Long.parseLong(properties.getProperty(LENGTH));
+			modified = Long.parseLong(properties.getProperty(LAST_MODIFIED));
+		} catch (NumberFormatException e) {
+			throw new IllegalStateException("Checkpoint '" + checkpointFile + "' is invalid");
+		}
+		if (length != buffer.limit() || modified != lastModified) {
+			throw new IllegalStateException("Script '" + file + "' has changed since its checkpoint was written; run it without --resume, or delete '" + checkpointFile + "'");
+		}
+		Assert.isTrue(line > 0 && offset <= buffer.limit() && (offset <= 0 || isLineStart(offset)), "Checkpoint '" + checkpointFile + "' is invalid");
+		if (offset >= 0) {
+			indexFrom(line, offset);
+		} else {
+			// The checkpoint is beyond the end of the script
+			indexFrom(line, buffer.limit());
+		}
+		return new Checkpoint(line, Boolean.valueOf(properties.getProperty(IN_BLOCK_COMMENT)));
+	}
+
+	private boolean isLineStart(final int offset) {
+		final byte previous = buffer.get(offset - 1);
+		return (previous == '\n' || previous == '\r') && !(previous == '\r' && offset < buffer.limit() && buffer.get(offset) == '\n');
+	}
+
+	private File getCheckpointFile() {
+		return new File(file.getPath() + CHECKPOINT_SUFFIX);
+	}
+
+	/**
+	 * The point from which a script is to be resumed.
+	 */
+	static class Checkpoint {
+		private final boolean inBlockComment;
+		private final int line;
+
+		Checkpoint(final int line, final boolean inBlockComment) {
+			this.inBlockComment = inBlockComment;
+			this.line = line;
+		}
+
+		int getLine() {
+			return line;
+		}
+
+		boolean isInBlockComment() {
+			return inBlockComment;
+		}
+	}
+
+	/**
+	 * Reads the remaining bytes of a buffer.
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(final ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(final byte[] bytes, final int offset, final int length) {
+			if (length == 0) {
+				return 0;
+			}
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			final int count = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, count);
+			return count;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+}
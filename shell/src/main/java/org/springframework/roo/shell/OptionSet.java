@@ -0,0 +1,177 @@
+package org.springframework.roo.shell;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The options tokenized from a command's remaining buffer by {@link ParserUtils#tokenizeOptions(String)},
+ * in the order they were given.
+ *
+ * <p>
+ * Values are recorded as offsets into the buffer wherever they appear there verbatim (the usual case),
+ * and are only copied out of it when asked for.
+ */
+final class OptionSet {
+
+	// Constants
+	private static final int INITIAL_CAPACITY = 8;
+
+	// Fields
+	private final String buffer;
+	private int size;
+	private int[] valueStarts = new int[INITIAL_CAPACITY];
+	private int[] valueEnds = new int[INITIAL_CAPACITY];
+	private String[] keys = new String[INITIAL_CAPACITY];
+	private String[] values = new String[INITIAL_CAPACITY]; // copied out lazily, or up front if not verbatim
+
+	/**
+	 * Constructor
+	 *
+	 * @param buffer the buffer from which the options were tokenized (required)
+	 */
+	OptionSet(final String buffer) {
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Adds an option whose value appears verbatim in the buffer
+	 *
+	 * @param key the option key, or "" for the default option
+	 * @param valueStart the offset of the value's first character
+	 * @param valueEnd the offset after the value's last character
+	 */
+	void add(final String key, final int valueStart, final int valueEnd) {
+		ensureCapacity();
+		keys[size] = key;
+		valueStarts[size] = valueStart;
+		valueEnds[size] = valueEnd;
+		values[size] = null;
+		size++;
+	}
+
+	/**
+	 * Adds an option whose value had to be assembled from several parts of the buffer
+	 *
+	 * @param key the option key, or "" for the default option
+	 * @param value the value
+	 */
+	void add(final String key, final String value) {
+		ensureCapacity();
+		keys[size] = key;
+		values[size] = value;
+		size++;
+	}
+
+	private void ensureCapacity() {
+		if (size == keys.length) {
+			final int capacity = size * 2;
+			keys = copyOf(keys, capacity);
+			values = copyOf(values, capacity);
+			valueStarts = copyOf(valueStarts, capacity);
+			valueEnds = copyOf(valueEnds, capacity);
+		}
+	}
+
+	/**
+	 * Removes the option at the given index
+	 *
+	 * @param index the index of the option to remove
+	 */
+	void remove(final int index) {
+		final int following = size - index - 1;
+		System.arraycopy(keys, index + 1, keys, index, following);
+		System.arraycopy(values, index + 1, values, index, following);
+		System.arraycopy(valueStarts, index + 1, valueStarts, index, following);
+		System.arraycopy(valueEnds, index + 1, valueEnds, index, following);
+		size--;
+		keys[size] = null;
+		values[size] = null;
+	}
+
+	/**
+	 * Returns the index of the option with the given key (case-sensitive)
+	 *
+	 * @param key the key to look for
+	 * @return -1 if there's no such option
+	 */
+	int indexOf(final String key) {
+		for (int i = 0; i < size; i++) {
+			if (keys[i].equals(key)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	boolean containsKey(final String key) {
+		return indexOf(key) >= 0;
+	}
+
+	/**
+	 * Returns the value of the option with the given key (case-sensitive)
+	 *
+	 * @param key the key to look for
+	 * @return <code>null</code> if there's no such option
+	 */
+	String get(final String key) {
+		final int index = indexOf(key);
+		return index < 0 ? null : getValue(index);
+	}
+
+	String getKey(final int index) {
+		return keys[index];
+	}
+
+	String getValue(final int index) {
+		if (values[index] == null) {
+			values[index] = buffer.substring(valueStarts[index], valueEnds[index]);
+		}
+		return values[index];
+	}
+
+	/**
+	 * Indicates whether the value of the option at the given index consists only of whitespace, without copying it
+	 *
+	 * @param index the index of the option
+	 * @return see above
+	 */
+	boolean isBlankValue(final int index) {
+		if (values[index] != null) {
+			return values[index].trim().length() == 0;
+		}
+		return ParserUtils.isWhitespace(buffer, valueStarts[index], valueEnds[index]);
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Returns these options as a map
+	 *
+	 * @return a new map in which the keys are in the order the options were given
+	 */
+	Map<String, String> toMap() {
+		final Map<String, String> result = new LinkedHashMap<String, String>();
+		for (int i = 0; i < size; i++) {
+			result.put(keys[i], getValue(i));
+		}
+		return result;
+	}
+
+	private static int[] copyOf(final int[] original, final int length) {
+		final int[] copy = new int[length];
+		System.arraycopy(original, 0, copy, 0, Math.min(original.length, length));
+		return copy;
+	}
+
+	private static String[] copyOf(final String[] original, final int length) {
+		final String[] copy = new String[length];
+		System.arraycopy(original, 0, copy, 0, Math.min(original.length, length));
+		return copy;
+	}
+}
@@ -24,17 +24,31 @@ import org.springframework.roo.support.util.StringUtils;
 public class ParseResult {
 
 	// Fields
+	private final CommandInvoker invoker;
 	private final Method method;
 	private final Object instance;
 	private final Object[] arguments; // May be null if no arguments needed
 
 	public ParseResult(final Method method, final Object instance, final Object[] arguments) {
-		Assert.notNull(method, "Method required");
-		Assert.notNull(instance, "Instance required");
+		this(new CommandInvoker(method, instance), arguments);
+	}
+
+	/**
+	 * Constructor for a command whose invoker has already been created
+	 *
+	 * @param invoker the invoker of the command's method (required)
+	 * @param arguments the arguments to pass to it (may be null if it takes none)
+	 * @since 1.2.1
+	 */
+	public ParseResult(final CommandInvoker invoker, final Object[] arguments) {
+		Assert.notNull(invoker, "Invoker required");
 		int length = arguments == null ? 0 : arguments.length;
-		Assert.isTrue(method.getParameterTypes().length == length, "Required " + method.getParameterTypes().length + " arguments, but received " + length);
-		this.method = method;
-		this.instance = instance;
+		if (invoker.getParameterCount() != length) {
+			throw new IllegalArgumentException("Required " + invoker.getParameterCount() + " arguments, but received " + length);
+		}
+		this.invoker = invoker;
+		this.method = invoker.getMethod();
+		this.instance = invoker.getTarget();
 		this.arguments = arguments;
 	}
 
@@ -46,6 +60,28 @@ public class ParseResult {
 		return instance;
 	}
 
+	/**
+	 * Returns the invoker of the parsed method, bound to its instance
+	 *
+	 * @return a non-<code>null</code> invoker
+	 * @since 1.2.1
+	 */
+	public CommandInvoker getInvoker() {
+		return invoker;
+	}
+
+	/**
+	 * Invokes the parsed method on its instance with the parsed arguments. {@link ExecutionStrategy}
+	 * implementations should call this rather than invoking {@link #getMethod()} reflectively themselves.
+	 *
+	 * @return the method's return value (<code>null</code> for void methods)
+	 * @throws RuntimeException if the method threw one, or wrapping any checked exception it threw
+	 * @since 1.2.1
+	 */
+	public Object invoke() {
+		return invoker.invoke(arguments);
+	}
+
 	public Object[] getArguments() {
 		return arguments;
 	}
@@ -18,6 +18,53 @@ public interface Parser {
 
 	ParseResult parse(String buffer);
 
+	/**
+	 * Locates the command named by the given template once, so that it can then be parsed repeatedly
+	 * with different options via {@link PreparedCommand#bind(String)}.
+	 *
+	 * @param template the command, optionally followed by any options common to every use, e.g.
+	 * "entity jpa" (required)
+	 * @return <code>null</code> if the template doesn't identify exactly one command, in which case
+	 * nothing is logged; parse the full command line instead to obtain the usual messages
+	 * @since 1.2.1
+	 */
+	PreparedCommand prepare(String template);
+
+	/**
+	 * Validates the given command line, and reduces it to the command and option values it gives, for
+	 * binding later (typically after being stored).
+	 *
+	 * <p>
+	 * The command's availability is not checked, as it can depend on the commands executed in between;
+	 * for the same reason, only options with a {@link SideEffectFreeConverter} are converted, and
+	 * options with no converter at all are left for binding to report.
+	 *
+	 * @param buffer the command line to compile (required)
+	 * @return <code>null</code> if the line is invalid, in which case the reason has been logged
+	 * @since 1.2.1
+	 */
+	CompiledCommand compile(String buffer);
+
+	/**
+	 * Converts the options of a compiled command, with the same outcome (including any messages logged)
+	 * as parsing the line from which it was compiled.
+	 *
+	 * @param command the command to bind (required)
+	 * @return <code>null</code> if the command isn't registered or presently available, or its options
+	 * couldn't be converted
+	 * @since 1.2.1
+	 */
+	ParseResult bind(CompiledCommand command);
+
+	/**
+	 * Returns a fingerprint of the registered commands and converters, which changes whenever a line
+	 * might compile differently.
+	 *
+	 * @return a non-blank String
+	 * @since 1.2.1
+	 */
+	String getFingerprint();
+
 	/**
 	 * Populates a list of completion candidates. This method is required for backward compatibility for STS versions up to 2.8.0.
 	 * 
@@ -0,0 +1,322 @@
+package org.springframework.roo.shell;
+
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.roo.shell.CommandDescriptor.Option;
+import org.springframework.roo.support.util.Assert;
+import org.springframework.roo.support.util.ObjectUtils;
+import org.springframework.roo.support.util.StringUtils;
+
+/**
+ * An immutable snapshot of the commands, availability indicators and converters known to a
+ * {@link SimpleParser}.
+ *
+ * <p>
+ * Each mutation returns a new snapshot, which the parser publishes atomically; parsing, completion
+ * and help therefore see a consistent registry without taking any locks, and run in parallel with
+ * each other and with registrations.
+ */
+final class ParserRegistry {
+
+	// Fields
+	private final CommandTrie<CommandDescriptor> commandIndex;
+	private final AtomicInteger converterGeneration = new AtomicInteger();
+	private final ConcurrentMap<ConverterKey, CachedConverter> converterCache = new ConcurrentHashMap<ConverterKey, CachedConverter>();
+	private final List<Converter<?>> converters;
+	private final Map<String, AvailabilityIndicator> availabilityIndicators;
+	private final Set<CommandMarker> commands;
+	private volatile String fingerprint; // computed when first needed
+
+	/**
+	 * Constructor for an empty registry
+	 */
+	ParserRegistry() {
+		this(Collections.<CommandMarker> emptySet(), new CommandTrie<CommandDescriptor>(), Collections.<String, AvailabilityIndicator> emptyMap(), Collections.<Converter<?>> emptyList());
+	}
+
+	private ParserRegistry(final Set<CommandMarker> commands, final CommandTrie<CommandDescriptor> commandIndex, final Map<String, AvailabilityIndicator> availabilityIndicators, final List<Converter<?>> converters) {
+		this.availabilityIndicators = availabilityIndicators;
+		this.commandIndex = commandIndex;
+		this.commands = commands;
+		this.converters = converters;
+	}
+
+	/**
+	 * Returns a registry that also contains the given command marker
+	 *
+	 * @param command the command marker to add (required)
+	 * @return a non-<code>null</code> registry
+	 */
+	ParserRegistry withCommand(final CommandMarker command) {
+		final Set<CommandMarker> newCommands = new LinkedHashSet<CommandMarker>(commands);
+		newCommands.add(command);
+		CommandTrie<CommandDescriptor> newCommandIndex = commandIndex;
+		final Map<String, AvailabilityIndicator> newAvailabilityIndicators = new HashMap<String, AvailabilityIndicator>(availabilityIndicators);
+		for (final Method method : command.getClass().getMethods()) {
+			if (method.isAnnotationPresent(CliCommand.class)) {
+				final CommandDescriptor descriptor = new CommandDescriptor(method, command);
+				for (String value : descriptor.getValues()) {
+					newCommandIndex = newCommandIndex.with(value, descriptor);
+				}
+			}
+			CliAvailabilityIndicator availability = method.getAnnotation(CliAvailabilityIndicator.class);
+			if (availability != null) {
+				Assert.isTrue(method.getParameterTypes().length == 0, "CliAvailabilityIndicator is only legal for 0 parameter methods (" + method.toGenericString() + ")");
+				Assert.isTrue(method.getReturnType().equals(Boolean.TYPE), "CliAvailabilityIndicator is only legal for primitive boolean return types (" + method.toGenericString() + ")");
+				final AvailabilityIndicator indicator = new AvailabilityIndicator(method, command);
+				for (String cmd : availability.value()) {
+					Assert.isTrue(!newAvailabilityIndicators.containsKey(cmd), "Cannot specify an availability indicator for '" + cmd + "' more than once");
+					newAvailabilityIndicators.put(cmd, indicator);
+				}
+			}
+		}
+		return new ParserRegistry(Collections.unmodifiableSet(newCommands), newCommandIndex, Collections.unmodifiableMap(newAvailabilityIndicators), converters);
+	}
+
+	/**
+	 * Returns a registry that no longer contains the given command marker
+	 *
+	 * @param command the command marker to remove (required)
+	 * @return a non-<code>null</code> registry
+	 */
+	ParserRegistry withoutCommand(final CommandMarker command) {
+		final Set<CommandMarker> newCommands = new LinkedHashSet<CommandMarker>(commands);
+		newCommands.remove(command);
+		CommandTrie<CommandDescriptor> newCommandIndex = commandIndex;
+		final Map<String, AvailabilityIndicator> newAvailabilityIndicators = new HashMap<String, AvailabilityIndicator>(availabilityIndicators);
+		for (Method m : command.getClass().getMethods()) {
+			if (m.isAnnotationPresent(CliCommand.class)) {
+				final CommandDescriptor descriptor = new CommandDescriptor(m, command);
+				for (String value : descriptor.getValues()) {
+					newCommandIndex = newCommandIndex.without(value, descriptor);
+				}
+			}
+			CliAvailabilityIndicator availability = m.getAnnotation(CliAvailabilityIndicator.class);
+			if (availability != null) {
+				for (String cmd : availability.value()) {
+					newAvailabilityIndicators.remove(cmd);
+				}
+			}
+		}
+		return new ParserRegistry(Collections.unmodifiableSet(newCommands), newCommandIndex, Collections.unmodifiableMap(newAvailabilityIndicators), converters);
+	}
+
+	/**
+	 * Returns a registry that also contains the given converter, after any already registered
+	 *
+	 * @param converter the converter to add (required)
+	 * @return a non-<code>null</code> registry (this one if the converter is already registered)
+	 */
+	ParserRegistry withConverter(final Converter<?> converter) {
+		if (converters.contains(converter)) {
+			return this;
+		}
+		final List<Converter<?>> newConverters = new ArrayList<Converter<?>>(converters);
+		newConverters.add(converter);
+		return new ParserRegistry(commands, commandIndex, availabilityIndicators, Collections.unmodifiableList(newConverters));
+	}
+
+	/**
+	 * Returns a registry that no longer contains the given converter
+	 *
+	 * @param converter the converter to remove (required)
+	 * @return a non-<code>null</code> registry (this one if the converter wasn't registered)
+	 */
+	ParserRegistry withoutConverter(final Converter<?> converter) {
+		if (!converters.contains(converter)) {
+			return this;
+		}
+		final List<Converter<?>> newConverters = new ArrayList<Converter<?>>(converters);
+		newConverters.remove(converter);
+		return new ParserRegistry(commands, commandIndex, availabilityIndicators, Collections.unmodifiableList(newConverters));
+	}
+
+	/**
+	 * Returns the registered command markers
+	 *
+	 * @return a non-<code>null</code> unmodifiable set
+	 */
+	Set<CommandMarker> getCommands() {
+		return commands;
+	}
+
+	/**
+	 * Returns the index of the registered commands
+	 *
+	 * @return a non-<code>null</code> index
+	 */
+	CommandTrie<CommandDescriptor> getCommandIndex() {
+		return commandIndex;
+	}
+
+	/**
+	 * Returns the availability indicator for the given command
+	 *
+	 * @param command the command string, e.g. "project setup"
+	 * @return <code>null</code> if that command has no availability indicator
+	 */
+	AvailabilityIndicator getAvailabilityIndicator(final String command) {
+		return availabilityIndicators.get(command);
+	}
+
+	/**
+	 * Returns every registered availability indicator
+	 *
+	 * @return a non-<code>null</code> set
+	 */
+	Set<AvailabilityIndicator> getAvailabilityIndicators() {
+		return new LinkedHashSet<AvailabilityIndicator>(availabilityIndicators.values());
+	}
+
+	/**
+	 * Returns a digest of the registered commands (their names, methods and options) and converters
+	 * (their classes and versions, in order), which differs between any two registries that could
+	 * compile a command line differently.
+	 *
+	 * @return a non-blank String
+	 */
+	String getFingerprint() {
+		if (fingerprint == null) {
+			final StringBuilder description = new StringBuilder();
+			final Map<String, Set<CommandDescriptor>> allCommands = new TreeMap<String, Set<CommandDescriptor>>(commandIndex.getAll());
+			for (final Entry<String, Set<CommandDescriptor>> command : allCommands.entrySet()) {
+				for (final CommandDescriptor descriptor : command.getValue()) {
+					description.append(command.getKey()).append('=').append(descriptor.getMethod().toGenericString());
+					for (final Option option : descriptor.getOptions()) {
+						description.append(' ').append(option.getKeyList()).append(option.isMandatory()).append(option.getSpecifiedDefaultValue()).append(option.getUnspecifiedDefaultValue()).append(option.getOptionContext());
+					}
+					description.append('\n');
+				}
+			}
+			for (final Converter<?> converter : converters) {
+				final Package converterPackage = converter.getClass().getPackage();
+				description.append(converter.getClass().getName()).append(' ').append(converterPackage == null ? null : converterPackage.getImplementationVersion()).append('\n');
+			}
+			fingerprint = digest(description.toString());
+		}
+		return fingerprint;
+	}
+
+	private static String digest(final String text) {
+		try {
+			final byte[] digest = MessageDigest.getInstance("SHA-1").digest(text.getBytes("UTF-8"));
+			final StringBuilder hex = new StringBuilder(digest.length * 2);
+			for (final byte b : digest) {
+				hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Returns the converter to use for the given type of option.
+	 *
+	 * <p>
+	 * Where more than one converter supports the option, those that only do so because of its option context
+	 * (i.e. that don't support the type given an empty context) take priority over general-purpose ones; within
+	 * each of these groups, the earliest-added converter wins. The result is cached until
+	 * {@link #invalidateConverters()} is called, or for the life of this registry.
+	 *
+	 * @param requiredType the type of the option (required)
+	 * @param optionContext the option context (can be blank)
+	 * @return <code>null</code> if no converter supports that type of option
+	 */
+	Converter<?> getConverter(final Class<?> requiredType, final String optionContext) {
+		final ConverterKey key = new ConverterKey(requiredType, optionContext);
+		final int generation = converterGeneration.get();
+		final CachedConverter cached = converterCache.get(key);
+		if (cached != null && cached.generation == generation) {
+			return cached.converter;
+		}
+		final Converter<?> converter = findConverter(requiredType, optionContext);
+		converterCache.put(key, new CachedConverter(converter, generation));
+		return converter;
+	}
+
+	/**
+	 * Forgets which converters support which options, e.g. because a converter's support has changed
+	 */
+	void invalidateConverters() {
+		// A search already under way caches its result under the old generation, which is then ignored
+		converterGeneration.incrementAndGet();
+		converterCache.clear();
+	}
+
+	private Converter<?> findConverter(final Class<?> requiredType, final String optionContext) {
+		Converter<?> generalPurpose = null;
+		for (final Converter<?> candidate : converters) {
+			if (candidate.supports(requiredType, optionContext)) {
+				if (StringUtils.isBlank(optionContext) || !candidate.supports(requiredType, "")) {
+					return candidate;
+				}
+				if (generalPurpose == null) {
+					generalPurpose = candidate;
+				}
+			}
+		}
+		return generalPurpose;
+	}
+
+	/**
+	 * A resolved {@link Converter}, along with the generation of the cache it was resolved in.
+	 */
+	private static class CachedConverter {
+
+		// Fields
+		private final Converter<?> converter; // can be null
+		private final int generation;
+
+		CachedConverter(final Converter<?> converter, final int generation) {
+			this.converter = converter;
+			this.generation = generation;
+		}
+	}
+
+	/**
+	 * The key under which a resolved {@link Converter} is cached.
+	 */
+	private static class ConverterKey {
+
+		// Fields
+		private final Class<?> requiredType;
+		private final String optionContext;
+
+		ConverterKey(final Class<?> requiredType, final String optionContext) {
+			this.requiredType = requiredType;
+			this.optionContext = optionContext;
+		}
+
+		@Override
+		public boolean equals(final Object other) {
+			if (!(other instanceof ConverterKey)) {
+				return false;
+			}
+			final ConverterKey otherKey = (ConverterKey) other;
+			return requiredType.equals(otherKey.requiredType) && ObjectUtils.nullSafeEquals(optionContext, otherKey.optionContext);
+		}
+
+		@Override
+		public int hashCode() {
+			return ObjectUtils.nullSafeHashCode(requiredType, optionContext);
+		}
+	}
+}
@@ -1,6 +1,5 @@
 package org.springframework.roo.shell;
 
-import java.util.LinkedHashMap;
 import java.util.Map;
 
 import org.springframework.roo.support.util.Assert;
@@ -34,148 +33,282 @@ public class ParserUtils {
 	 * @return a Map where keys are the option names (minus any dashes) and values are the option values (any double-quotes are removed)
 	 */
 	public static Map<String, String> tokenize(final String remainingBuffer) {
+		return tokenizeOptions(remainingBuffer).toMap();
+	}
+
+	/**
+	 * Tokenizes the given buffer exactly as {@link #tokenize(String)} does, but in a single pass over its
+	 * characters, without splitting it into separate Strings first.
+	 *
+	 * <p>
+	 * The buffer is still treated as a series of tokens separated by single spaces (so a double space
+	 * delimits an empty token, and trailing empty tokens are ignored), and each token is handled as
+	 * before; only their offsets are tracked, so most values are never copied out of the buffer.
+	 *
+	 * @param remainingBuffer to tokenize
+	 * @return a non-<code>null</code> set of options, in the order given
+	 */
+	static OptionSet tokenizeOptions(final String remainingBuffer) {
 		Assert.notNull(remainingBuffer, "Remaining buffer cannot be null, although it can be empty");
-		Map<String, String> result = new LinkedHashMap<String, String>();
-		StringBuilder currentOption = new StringBuilder();
-		StringBuilder currentValue = new StringBuilder();
-		boolean inQuotes = false;
+		final OptionSet result = new OptionSet(remainingBuffer);
+		if (isWhitespace(remainingBuffer, 0, remainingBuffer.length())) {
+			// They've not specified anything (and so no quotation marks either), so exit now
+			return result;
+		}
 
-		// Verify correct number of double quotes are present
-		int count = 0;
-		for (char c : remainingBuffer.toCharArray()) {
-			if ('"' == c) {
-				count++;
+		new Tokenizer(remainingBuffer, result).tokenize();
+
+		// Strip out an empty default option, if it was returned (ROO-379)
+		final int defaultIndex = result.indexOf("");
+		if (defaultIndex >= 0 && result.isBlankValue(defaultIndex)) {
+			result.remove(defaultIndex);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Indicates whether the given region of the given String consists only of whitespace, as per {@link String#trim()}
+	 *
+	 * @param text the text to check (required)
+	 * @param start the offset of the region's first character
+	 * @param end the offset after the region's last character
+	 * @return true if the region is empty or only contains whitespace
+	 */
+	static boolean isWhitespace(final String text, final int start, final int end) {
+		for (int i = start; i < end; i++) {
+			if (text.charAt(i) > ' ') {
+				return false;
 			}
 		}
-		Assert.isTrue(count % 2 == 0, "Cannot have an unbalanced number of quotation marks");
+		return true;
+	}
 
-		if ("".equals(remainingBuffer.trim())) {
-			// They've not specified anything, so exit now
-			return result;
+	/**
+	 * Tokenizes one buffer. The buffer is still treated as a series of tokens separated by single spaces,
+	 * each handled as the original String#split-based implementation did, but tokens are only tracked by
+	 * their offsets.
+	 */
+	private static class Tokenizer {
+
+		// Fields
+		private final String buffer;
+		private final OptionSet result;
+		private final Fragment currentOption;
+		private final Fragment currentValue;
+		private final int end;
+		private boolean inQuotes;
+		private String error; // reported after the quotation marks have been counted, which takes precedence
+
+		Tokenizer(final String buffer, final OptionSet result) {
+			this.buffer = buffer;
+			this.result = result;
+			this.currentOption = new Fragment(buffer);
+			this.currentValue = new Fragment(buffer);
+			// As with String#split(" "), trailing empty tokens are ignored
+			int end = buffer.length();
+			while (buffer.charAt(end - 1) == ' ') {
+				end--;
+			}
+			this.end = end;
 		}
 
-		String[] split = remainingBuffer.split(" ");
-		for (int i = 0; i < split.length; i++) {
-			String currentToken = split[i];
+		void tokenize() {
+			int quotes = 0;
+			int tokenStart = 0;
+			while (true) {
+				int tokenEnd = tokenStart;
+				while (tokenEnd < end && buffer.charAt(tokenEnd) != ' ') {
+					if (buffer.charAt(tokenEnd) == '"') {
+						quotes++;
+					}
+					tokenEnd++;
+				}
+				if (error == null) {
+					processToken(tokenStart, tokenEnd);
+				}
+				if (tokenEnd == end) {
+					break;
+				}
+				tokenStart = tokenEnd + 1;
+			}
+
+			Assert.isTrue(quotes % 2 == 0, "Cannot have an unbalanced number of quotation marks");
+			if (error != null) {
+				throw new IllegalArgumentException(error);
+			}
+		}
 
-			if (currentToken.startsWith("\"") && currentToken.endsWith("\"") && currentToken.length() > 1) {
-				String tokenLessDelimiters = currentToken.substring(1, currentToken.length() - 1);
-				currentValue.append(tokenLessDelimiters);
+		private void processToken(final int start, final int end) {
+			final int length = end - start;
+			final boolean startsWithQuote = length > 0 && buffer.charAt(start) == '"';
+			final boolean endsWithQuote = length > 0 && buffer.charAt(end - 1) == '"';
 
-				// Store this token
-				store(result, currentOption, currentValue);
-				currentOption = new StringBuilder();
-				currentValue = new StringBuilder();
-				continue;
+			if (startsWithQuote && endsWithQuote && length > 1) {
+				currentValue.append(start + 1, end - 1, false);
+				store();
+				return;
 			}
 
 			if (inQuotes) {
 				// We're only interested in this token series ending
-				if (currentToken.endsWith("\"")) {
-					String tokenLessDelimiters = currentToken.substring(0, currentToken.length() - 1);
-					currentValue.append(" ").append(tokenLessDelimiters);
+				if (endsWithQuote) {
+					currentValue.append(start, end - 1, true);
 					inQuotes = false;
-
-					// Store this now-ended token series
-					store(result, currentOption, currentValue);
-					currentOption = new StringBuilder();
-					currentValue = new StringBuilder();
+					store();
 				} else {
 					// The current token series has not ended
-					currentValue.append(" ").append(currentToken);
+					currentValue.append(start, end, true);
 				}
-				continue;
+				return;
 			}
 
-			if (currentToken.startsWith("\"")) {
+			if (startsWithQuote) {
 				// We're about to start a new delimited token
-				String tokenLessDelimiters = currentToken.substring(1);
-				currentValue.append(tokenLessDelimiters);
+				currentValue.append(start + 1, end, false);
 				inQuotes = true;
-				continue;
+				return;
 			}
 
-			if (currentToken.trim().equals("")) {
+			if (isWhitespace(buffer, start, end)) {
 				// It's simply empty, so ignore it (ROO-23)
-				continue;
+				return;
 			}
 
-			if (currentToken.startsWith("--")) {
+			if (length > 1 && buffer.charAt(start) == '-' && buffer.charAt(start + 1) == '-') {
 				// We're about to start a new option marker
 				// First strip all of the - or -- or however many there are
-				int lastIndex = currentToken.lastIndexOf("-");
-				String tokenLessDelimiters = currentToken.substring(lastIndex + 1);
-				currentOption.append(tokenLessDelimiters);
-
-				// Store this token if it's the last one, or the next token starts with a "-"
-				if (i + 1 == split.length) {
-					// We're at the end of the tokens, so store this one and stop processing
-					store(result, currentOption, currentValue);
-					break;
+				int lastDash = end - 1;
+				while (buffer.charAt(lastDash) != '-') {
+					lastDash--;
 				}
+				currentOption.append(lastDash + 1, end, false);
 
-				if (split[i + 1].startsWith("-")) {
-					// A new token is being started next iteration, so store this one now
-					store(result, currentOption, currentValue);
-					currentOption = new StringBuilder();
-					currentValue = new StringBuilder();
+				// Store this token if it's the last one, or the next token starts with a "-"
+				if (end == this.end || nextTokenStartsWithDashes(end, 1)) {
+					store();
 				}
-
-				continue;
+				return;
 			}
 
 			// We must be in a standard token
 
 			// If the standard token has no option name, we allow it to contain unquoted spaces
 			if (currentOption.length() == 0) {
-				if (currentValue.length() > 0) {
-					// Existing content, so add a space first
-					currentValue.append(" ");
+				currentValue.append(start, end, currentValue.length() > 0);
+
+				// Store this token if it's the last one, or the next token starts with a "--"
+				if (end == this.end || nextTokenStartsWithDashes(end, 2)) {
+					store();
 				}
-				currentValue.append(currentToken);
+				return;
+			}
 
-				// Store this token if it's the last one, or the next token starts with a "-"
-				if (i + 1 == split.length) {
-					// We're at the end of the tokens, so store this one and stop processing
-					store(result, currentOption, currentValue);
-					break;
+			// This is an ordinary token, so store it now
+			currentValue.append(start, end, false);
+			store();
+		}
+
+		private boolean nextTokenStartsWithDashes(final int tokenEnd, final int dashes) {
+			for (int i = tokenEnd + 1; i <= tokenEnd + dashes; i++) {
+				if (i >= end || buffer.charAt(i) != '-') {
+					return false;
 				}
+			}
+			return true;
+		}
 
-				if (split[i + 1].startsWith("--")) {
-					// A new token is being started next iteration, so store this one now
-					store(result, currentOption, currentValue);
-					currentOption = new StringBuilder();
-					currentValue = new StringBuilder();
+		private void store() {
+			final String option = currentOption.toString();
+			if (result.containsKey(option)) {
+				if (option.length() > 0) {
+					error = "You cannot specify option '" + option + "' more than once in a single command";
+				} else {
+					// There was no option marker, so verify this isn't the first
+					error = "You cannot add more than one default option ('" + currentValue + "') in a single command";
 				}
+				return;
+			}
+			currentValue.addTo(result, option);
+			currentOption.reset();
+			currentValue.reset();
+		}
+	}
+
+	/**
+	 * The option name or value currently being tokenized. This is tracked as a region of the buffer
+	 * for as long as the parts appended to it are contiguous in the buffer, and only copied into a
+	 * StringBuilder when they're not (e.g. a default value containing a double space).
+	 */
+	private static class Fragment {
+
+		// Fields
+		private final String buffer;
+		private int start = -1; // -1 means that nothing has been appended since the last reset
+		private int end;
+		private StringBuilder builder;
+
+		Fragment(final String buffer) {
+			this.buffer = buffer;
+		}
 
-				continue;
+		/**
+		 * Appends the given region of the buffer
+		 *
+		 * @param from the offset of the region's first character
+		 * @param to the offset after the region's last character
+		 * @param withSpace whether to append a space first
+		 */
+		void append(final int from, final int to, final boolean withSpace) {
+			if (builder == null) {
+				if (start < 0 && !withSpace) {
+					start = from;
+					end = to;
+					return;
+				}
+				if (start >= 0 && (withSpace ? from == end + 1 && buffer.charAt(end) == ' ' : from == end)) {
+					end = to;
+					return;
+				}
+				builder = new StringBuilder();
+				if (start >= 0) {
+					builder.append(buffer, start, end);
+				}
+			}
+			if (withSpace) {
+				builder.append(' ');
 			}
+			builder.append(buffer, from, to);
+		}
 
-			// This is an ordinary token, so store it now
-			currentValue.append(currentToken);
-			store(result, currentOption, currentValue);
-			currentOption = new StringBuilder();
-			currentValue = new StringBuilder();
+		int length() {
+			if (builder != null) {
+				return builder.length();
+			}
+			return start < 0 ? 0 : end - start;
 		}
 
-		// Strip out an empty default option, if it was returned (ROO-379)
-		if (result.containsKey("") && result.get("").trim().equals("")) {
-			result.remove("");
+		void addTo(final OptionSet options, final String key) {
+			if (builder != null) {
+				options.add(key, builder.toString());
+			} else if (start < 0) {
+				options.add(key, 0, 0);
+			} else {
+				options.add(key, start, end);
+			}
 		}
 
-		return result;
-	}
+		void reset() {
+			start = -1;
+			builder = null;
+		}
 
-	private static void store(final Map<String, String> results, final StringBuilder currentOption, final StringBuilder currentValue) {
-		if (currentOption.length() > 0) {
-			// There is an option marker
-			String option = currentOption.toString();
-			Assert.isTrue(!results.containsKey(option), "You cannot specify option '" + option + "' more than once in a single command");
-			results.put(option, currentValue.toString());
-		} else {
-			// There was no option marker, so verify this isn't the first
-			Assert.isTrue(!results.containsKey(""), "You cannot add more than one default option ('" + currentValue.toString() + "') in a single command");
-			results.put("", currentValue.toString());
+		@Override
+		public String toString() {
+			if (builder != null) {
+				return builder.toString();
+			}
+			return start < 0 ? "" : buffer.substring(start, end);
 		}
 	}
 }
@@ -0,0 +1,27 @@
+package org.springframework.roo.shell;
+
+/**
+ * A command that has been located once by a {@link Parser}, so that it can be parsed repeatedly with
+ * different option values without locating it again; comparable to a JDBC PreparedStatement.
+ *
+ * @see Parser#prepare(String)
+ */
+public interface PreparedCommand {
+
+	/**
+	 * Returns the template from which this command was prepared
+	 *
+	 * @return a non-<code>null</code> String, normalised as per the parser
+	 */
+	String getTemplate();
+
+	/**
+	 * Parses this command with the given options, with the same outcome (including any messages logged)
+	 * as parsing the template followed by those options.
+	 *
+	 * @param options the remainder of the command line, e.g. "--name foo" (can be blank)
+	 * @return the parse result, or <code>null</code> if the options were invalid or the command isn't
+	 * presently available
+	 */
+	ParseResult bind(String options);
+}
@@ -0,0 +1,68 @@
+package org.springframework.roo.shell;
+
+/**
+ * Predicts the text that {@link AbstractShell#executeCommand(String)} will parse for each line of a
+ * script, as the shell does, keeping track of block comments from one line to the next.
+ *
+ * <p>
+ * As in the shell, a block comment is only opened by the "/*" command, i.e. a line starting with
+ * "/*", and closed by the first line after it containing "*&#47;"; a line holding both markers is
+ * commented out in between, but leaves no comment open, and a marker anywhere else in a line is
+ * just part of a command or line comment. Lines that open or close a block comment, or hold one,
+ * are left unpredicted, as the shell might also execute them as commands; callers should simply
+ * leave such lines to be parsed as usual.
+ */
+final class ScriptComments {
+
+	// Constants
+	private static final String BLOCK_START = "/*";
+	private static final String BLOCK_END = "*/";
+
+	// Fields
+	private boolean inBlockComment;
+
+	/**
+	 * Constructor
+	 *
+	 * @param inBlockComment whether the shell is within a block comment at the start of the script
+	 */
+	ScriptComments(final boolean inBlockComment) {
+		this.inBlockComment = inBlockComment;
+	}
+
+	/**
+	 * Returns the text that will be parsed for the given line, which must be the next line of the script
+	 *
+	 * @param line the line as read from the script (required)
+	 * @return <code>null</code> if nothing will be parsed, or this can't be predicted
+	 */
+	String getCommandText(final String line) {
+		if (inBlockComment) {
+			// Any text after the end of the comment is executed
+			inBlockComment = !line.contains(BLOCK_END);
+			return null;
+		}
+		if (line.contains(BLOCK_START) && line.contains(BLOCK_END)) {
+			// Commented out in between, but closed again
+			return null;
+		}
+		final String trimmed = line.trim();
+		if (trimmed.startsWith(BLOCK_START)) {
+			inBlockComment = true;
+			return null;
+		}
+		if (trimmed.startsWith(BLOCK_END) || trimmed.startsWith("//") || trimmed.startsWith("#") || "".equals(trimmed)) {
+			return null;
+		}
+		return line.replace('\t', ' ');
+	}
+
+	/**
+	 * Indicates whether the next line of the script is within a block comment
+	 *
+	 * @return see above
+	 */
+	boolean isInBlockComment() {
+		return inBlockComment;
+	}
+}
@@ -0,0 +1,96 @@
+package org.springframework.roo.shell;
+
+import org.springframework.roo.support.util.Assert;
+
+/**
+ * A line of a script, which might already have been compiled (e.g. by a {@link ScriptPipeline} or
+ * by "script compile"), so that it needn't be parsed again when it's executed.
+ */
+final class ScriptLine {
+
+	// Fields
+	private final int number;
+	private final CompiledCommand compiledCommand;
+	private final Parser parser;
+	private final String compiledText; // null if not compiled
+	private final String fingerprint; // null if the parser's commands aren't checked for changes
+	private final String line;
+
+	/**
+	 * Constructor for a line that hasn't been compiled
+	 *
+	 * @param number the one-based number of the line within its script
+	 * @param line the line as read (required)
+	 */
+	ScriptLine(final int number, final String line) {
+		this(number, line, null, null, null, null);
+	}
+
+	/**
+	 * Constructor for a line that has been compiled
+	 *
+	 * @param number the one-based number of the line within its script
+	 * @param line the line as read (required)
+	 * @param compiledText the text that was compiled, i.e. the line minus any comments (required)
+	 * @param compiledCommand the result of compiling that text (required)
+	 * @param parser the parser with which to bind that command (required)
+	 */
+	ScriptLine(final int number, final String line, final String compiledText, final CompiledCommand compiledCommand, final Parser parser) {
+		this(number, line, compiledText, compiledCommand, parser, null);
+	}
+
+	/**
+	 * Constructor for a line that has been compiled, and should be parsed again if the parser's
+	 * commands or converters have changed since
+	 *
+	 * @param number the one-based number of the line within its script
+	 * @param line the line as read (required)
+	 * @param compiledText the text that was compiled, i.e. the line minus any comments (required)
+	 * @param compiledCommand the result of compiling that text (required)
+	 * @param parser the parser with which to bind that command (required)
+	 * @param fingerprint the parser's fingerprint before the line was compiled (can be
+	 * <code>null</code> not to check it)
+	 */
+	ScriptLine(final int number, final String line, final String compiledText, final CompiledCommand compiledCommand, final Parser parser, final String fingerprint) {
+		Assert.notNull(line, "Line required");
+		if (compiledText != null) {
+			Assert.notNull(compiledCommand, "Compiled command required");
+			Assert.notNull(parser, "Parser required");
+		}
+		this.compiledCommand = compiledCommand;
+		this.compiledText = compiledText;
+		this.fingerprint = fingerprint;
+		this.line = line;
+		this.number = number;
+		this.parser = parser;
+	}
+
+	int getNumber() {
+		return number;
+	}
+
+	String getLine() {
+		return line;
+	}
+
+	/**
+	 * Indicates whether the given text is what was compiled from this line, and can still be bound
+	 *
+	 * @param text the text about to be parsed (required)
+	 * @return <code>false</code> if it needs parsing as usual
+	 */
+	boolean isCompiled(final String text) {
+		return compiledText != null && compiledText.equals(text) && (fingerprint == null || fingerprint.equals(parser.getFingerprint()));
+	}
+
+	/**
+	 * Binds the command this line was compiled to. Only call this if {@link #isCompiled(String)}.
+	 *
+	 * @return <code>null</code> if the command couldn't be bound (e.g. because it isn't presently
+	 * available), in which case the reason has been logged
+	 */
+	ParseResult bind() {
+		Assert.notNull(compiledText, "Line " + number + " hasn't been compiled");
+		return parser.bind(compiledCommand);
+	}
+}
@@ -0,0 +1,158 @@
+package org.springframework.roo.shell;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.springframework.roo.support.util.Assert;
+
+/**
+ * Reads a script on its own thread, compiling each line ahead of its execution so that tokenizing
+ * and matching the command are taken off the critical path of the thread executing the commands.
+ *
+ * <p>
+ * Lines are handed over in order through a bounded queue, and the reader stops once that queue is
+ * full, the script ends, or the pipeline is {@link #close() closed} (e.g. because a command failed).
+ * Lines are only {@link Parser#compile(String) compiled} ahead; each is
+ * {@link Parser#bind(CompiledCommand) bound} by the executing thread once the lines before it have
+ * executed, so that the command's availability and its option values are checked as they would be
+ * without pipelining. Any messages logged while compiling ahead are discarded, as binding logs the
+ * same messages that parsing would; a line that can't be compiled ahead (perhaps because it relies
+ * on a command that an earlier line makes available) is simply passed on as text, to be parsed by
+ * the executing thread as usual, as is a compiled line once the parser's commands or converters
+ * have changed.
+ *
+ * <p>
+ * Compiling ahead assumes that the parser is thread-safe.
+ */
+final class ScriptPipeline extends ScriptReader {
+
+	// Constants
+	private static final Object END = new Object();
+
+	// Fields
+	private final BlockingQueue<Object> lines;
+	private final BufferedReader in;
+	private final Parser parser;
+	private final ScriptComments comments; // accessed by the reader thread only
+	private final Thread reader;
+	private final int firstLineNumber;
+	private boolean ended; // accessed by the executing thread only
+	private volatile boolean closed;
+
+	/**
+	 * Constructor
+	 *
+	 * @param in the script to read (required)
+	 * @param parser the parser with which to compile and bind the script's lines (required)
+	 * @param firstLineNumber the number of the first line that will be read
+	 * @param capacity the maximum number of lines to read ahead
+	 * @param inBlockComment whether the shell is within a block comment at the start of the script
+	 * @param name the name of the reader thread
+	 */
+	ScriptPipeline(final BufferedReader in, final Parser parser, final int firstLineNumber, final int capacity, final boolean inBlockComment, final String name) {
+		Assert.notNull(parser, "Parser required");
+		this.comments = new ScriptComments(inBlockComment);
+		this.firstLineNumber = firstLineNumber;
+		this.in = in;
+		this.parser = parser;
+		this.lines = new ArrayBlockingQueue<Object>(capacity);
+		this.reader = new Thread(new Runnable() {
+			public void run() {
+				read();
+			}
+		}, name);
+		this.reader.setDaemon(true);
+	}
+
+	/**
+	 * Starts reading the script
+	 */
+	void start() {
+		reader.start();
+	}
+
+	/**
+	 * Returns the next line of the script, waiting for the reader if necessary
+	 */
+	@Override
+	ScriptLine next() throws IOException {
+		if (ended) {
+			return null;
+		}
+		final Object item;
+		try {
+			item = lines.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while reading the script", e);
+		}
+		if (item == END) {
+			ended = true;
+			return null;
+		}
+		if (item instanceof IOException) {
+			ended = true;
+			throw (IOException) item;
+		}
+		return (ScriptLine) item;
+	}
+
+	/**
+	 * Stops reading the script, discarding any lines read ahead, and waits for the reader thread to finish
+	 */
+	@Override
+	void close() {
+		closed = true;
+		reader.interrupt();
+		try {
+			reader.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void read() {
+		try {
+			Object last = END;
+			try {
+				String line;
+				int number = firstLineNumber - 1;
+				while (!closed && (line = in.readLine()) != null) {
+					lines.put(readAhead(++number, line));
+				}
+			} catch (IOException e) {
+				last = e;
+			}
+			if (!closed) {
+				lines.put(last);
+			}
+		} catch (InterruptedException e) {
+			// Closed by the executing thread
+		}
+	}
+
+	private ScriptLine readAhead(final int number, final String line) {
+		final String text = comments.getCommandText(line);
+		if (text == null || closed) {
+			return new ScriptLine(number, line);
+		}
+		// Read first, so that a line compiled by commands that have since changed isn't used
+		final String fingerprint = parser.getFingerprint();
+		CompiledCommand compiledCommand = null;
+		LogCapture.start();
+		try {
+			compiledCommand = parser.compile(text);
+		} catch (RuntimeException e) {
+			// Leave it to the executing thread to report the problem
+		} finally {
+			LogCapture.stop();
+		}
+		if (compiledCommand == null) {
+			// The executing thread will parse it again, reporting any problems when the line is reached
+			return new ScriptLine(number, line);
+		}
+		return new ScriptLine(number, line, text, compiledCommand, parser, fingerprint);
+	}
+}
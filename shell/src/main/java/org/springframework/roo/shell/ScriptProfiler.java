@@ -0,0 +1,287 @@
+package org.springframework.roo.shell;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.springframework.roo.support.util.Assert;
+import org.springframework.roo.support.util.IOUtils;
+import org.springframework.roo.support.util.MathUtils;
+
+/**
+ * Records how long each line of a script spends being parsed (including converting each of its
+ * options), executed, and having its result rendered, for "script --profile".
+ *
+ * <p>
+ * The profiler of the script running on the current thread is held in a thread-local, so that the
+ * parser can report the time it spends converting each option; nested scripts have their own (or
+ * none), so their lines are only counted within the time taken to execute the line that ran them.
+ * Compiling done ahead on another thread (see {@link ScriptPipeline}) isn't counted.
+ */
+final class ScriptProfiler {
+
+	// Constants
+	private static final ThreadLocal<ScriptProfiler> CURRENT = new ThreadLocal<ScriptProfiler>();
+	private static final Comparator<LineProfile> SLOWEST_FIRST = new Comparator<LineProfile>() {
+		public int compare(final LineProfile first, final LineProfile second) {
+			final long difference = second.getTotalNanos() - first.getTotalNanos();
+			return difference < 0 ? -1 : (difference > 0 ? 1 : first.number - second.number);
+		}
+	};
+
+	// Fields
+	private final List<LineProfile> lines = new ArrayList<LineProfile>();
+	private LineProfile line; // the line being executed, if any
+
+	/**
+	 * Returns the profiler of the script running on the current thread
+	 *
+	 * @return <code>null</code> if that script isn't being profiled
+	 */
+	static ScriptProfiler current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Sets the profiler of the script running on the current thread
+	 *
+	 * @param profiler the profiler to set (<code>null</code> if that script isn't being profiled)
+	 */
+	static void setCurrent(final ScriptProfiler profiler) {
+		if (profiler == null) {
+			CURRENT.remove();
+		} else {
+			CURRENT.set(profiler);
+		}
+	}
+
+	/**
+	 * Starts profiling the given line
+	 *
+	 * @param number the line's number within the script
+	 * @param text the line as read (required)
+	 */
+	void startLine(final int number, final String text) {
+		line = new LineProfile(number, text);
+	}
+
+	/**
+	 * Stops profiling the line that was started; it's only kept if it was parsed, i.e. it wasn't blank
+	 * or a comment
+	 */
+	void endLine() {
+		if (line != null && line.command != null) {
+			lines.add(line);
+		}
+		line = null;
+	}
+
+	/**
+	 * Records the parsing of the current line
+	 *
+	 * @param parseResult the result (<code>null</code> if it couldn't be parsed)
+	 * @param nanos the time taken
+	 */
+	void parsed(final ParseResult parseResult, final long nanos) {
+		if (line != null) {
+			line.command = getCommand(parseResult, line.text);
+			line.parseNanos += nanos;
+		}
+	}
+
+	/**
+	 * Records the conversion of an option of the current line
+	 *
+	 * @param keys the option's keys (required)
+	 * @param nanos the time taken
+	 */
+	void converted(final String[] keys, final long nanos) {
+		if (line == null) {
+			return;
+		}
+		String key = "";
+		for (int i = 0; i < keys.length && "".equals(key); i++) {
+			key = keys[i];
+		}
+		final Long previous = line.conversionNanos.get(key);
+		line.conversionNanos.put(key, previous == null ? nanos : previous + nanos);
+	}
+
+	void executed(final long nanos) {
+		if (line != null) {
+			line.executeNanos += nanos;
+		}
+	}
+
+	void rendered(final long nanos) {
+		if (line != null) {
+			line.renderNanos += nanos;
+		}
+	}
+
+	private static String getCommand(final ParseResult parseResult, final String text) {
+		if (parseResult == null) {
+			// Use the first word, for want of anything better
+			final String trimmed = text.trim();
+			final int space = trimmed.indexOf(' ');
+			return space < 0 ? trimmed : trimmed.substring(0, space);
+		}
+		final CliCommand cliCommand = parseResult.getMethod().getAnnotation(CliCommand.class);
+		if (cliCommand == null || cliCommand.value().length == 0) {
+			return parseResult.getMethod().getName();
+		}
+		return cliCommand.value()[0];
+	}
+
+	/**
+	 * Returns a report of the slowest lines, and the time taken by each command
+	 *
+	 * @param top the maximum number of lines to report
+	 * @return the lines of the report
+	 */
+	List<String> getReport(final int top) {
+		final List<String> report = new ArrayList<String>();
+		final List<LineProfile> slowest = new ArrayList<LineProfile>(lines);
+		Collections.sort(slowest, SLOWEST_FIRST);
+		report.add("Slowest " + Math.min(top, slowest.size()) + " of " + slowest.size() + " line(s) executed:");
+		for (final LineProfile lineProfile : slowest.subList(0, Math.min(top, slowest.size()))) {
+			report.add("  Line " + lineProfile.number + ": " + toMillis(lineProfile.getTotalNanos()) + " ms (parse " + toMillis(lineProfile.parseNanos) + ", of which converting " + toMillis(lineProfile.getConversionNanos()) + "; execute " + toMillis(lineProfile.executeNanos) + "; render " + toMillis(lineProfile.renderNanos) + ") " + lineProfile.text.trim());
+		}
+
+		// Total the time taken by each command, slowest first
+		final Map<String, long[]> commands = new LinkedHashMap<String, long[]>(); // command -> {lines, nanos}
+		long totalNanos = 0;
+		for (final LineProfile lineProfile : lines) {
+			long[] command = commands.get(lineProfile.command);
+			if (command == null) {
+				command = new long[2];
+				commands.put(lineProfile.command, command);
+			}
+			command[0]++;
+			command[1] += lineProfile.getTotalNanos();
+			totalNanos += lineProfile.getTotalNanos();
+		}
+		final List<Entry<String, long[]>> byTime = new ArrayList<Entry<String, long[]>>(commands.entrySet());
+		Collections.sort(byTime, new Comparator<Entry<String, long[]>>() {
+			public int compare(final Entry<String, long[]> first, final Entry<String, long[]> second) {
+				return Long.valueOf(second.getValue()[1]).compareTo(first.getValue()[1]);
+			}
+		});
+		report.add("Time by command:");
+		for (final Entry<String, long[]> command : byTime) {
+			final double percentage = totalNanos == 0 ? 0 : 100D * command.getValue()[1] / totalNanos;
+			report.add("  " + command.getKey() + ": " + toMillis(command.getValue()[1]) + " ms over " + command.getValue()[0] + " line(s) (" + MathUtils.round(percentage, 1) + "%)");
+		}
+		return report;
+	}
+
+	/**
+	 * Writes the timings of every line to the given file, as JSON if its name ends with ".json",
+	 * otherwise as CSV
+	 *
+	 * @param file the file to write (required)
+	 * @throws IOException if it couldn't be written
+	 */
+	void write(final File file) throws IOException {
+		Assert.notNull(file, "File required");
+		final Writer out = new FileWriter(file);
+		try {
+			if (file.getName().toLowerCase().endsWith(".json")) {
+				writeJson(out);
+			} else {
+				writeCsv(out);
+			}
+		} finally {
+			IOUtils.closeQuietly(out);
+		}
+	}
+
+	private void writeCsv(final Writer out) throws IOException {
+		out.write("line,command,parse_ms,convert_ms,execute_ms,render_ms,total_ms,conversions_ms,text\n");
+		for (final LineProfile lineProfile : lines) {
+			final StringBuilder conversions = new StringBuilder();
+			for (final Entry<String, Long> conversion : lineProfile.conversionNanos.entrySet()) {
+				conversions.append(conversions.length() == 0 ? "" : ";").append(conversion.getKey()).append('=').append(toMillis(conversion.getValue()));
+			}
+			out.write(lineProfile.number + "," + quoteCsv(lineProfile.command) + "," + toMillis(lineProfile.parseNanos) + "," + toMillis(lineProfile.getConversionNanos()) + "," + toMillis(lineProfile.executeNanos) + "," + toMillis(lineProfile.renderNanos) + "," + toMillis(lineProfile.getTotalNanos()) + "," + quoteCsv(conversions.toString()) + "," + quoteCsv(lineProfile.text) + "\n");
+		}
+	}
+
+	private void writeJson(final Writer out) throws IOException {
+		out.write("[");
+		for (int i = 0; i < lines.size(); i++) {
+			final LineProfile lineProfile = lines.get(i);
+			out.write(i == 0 ? "\n" : ",\n");
+			out.write("  {\"line\": " + lineProfile.number + ", \"command\": " + quoteJson(lineProfile.command) + ", \"parseMs\": " + toMillis(lineProfile.parseNanos) + ", \"convertMs\": " + toMillis(lineProfile.getConversionNanos()) + ", \"executeMs\": " + toMillis(lineProfile.executeNanos) + ", \"renderMs\": " + toMillis(lineProfile.renderNanos) + ", \"totalMs\": " + toMillis(lineProfile.getTotalNanos()) + ", \"conversionsMs\": {");
+			boolean first = true;
+			for (final Entry<String, Long> conversion : lineProfile.conversionNanos.entrySet()) {
+				out.write((first ? "" : ", ") + quoteJson(conversion.getKey()) + ": " + toMillis(conversion.getValue()));
+				first = false;
+			}
+			out.write("}, \"text\": " + quoteJson(lineProfile.text) + "}");
+		}
+		out.write("\n]\n");
+	}
+
+	private static double toMillis(final long nanos) {
+		return MathUtils.round(nanos / 1000000D, 3);
+	}
+
+	private static String quoteCsv(final String value) {
+		return "\"" + value.replace("\"", "\"\"") + "\"";
+	}
+
+	private static String quoteJson(final String value) {
+		final StringBuilder quoted = new StringBuilder("\"");
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				quoted.append('\\').append(c);
+			} else if (c < ' ') {
+				quoted.append(String.format("\\u%04x", (int) c));
+			} else {
+				quoted.append(c);
+			}
+		}
+		return quoted.append('"').toString();
+	}
+
+	/**
+	 * The timings of one line.
+	 */
+	private static class LineProfile {
+		final int number;
+		final Map<String, Long> conversionNanos = new LinkedHashMap<String, Long>();
+		final String text;
+		long executeNanos;
+		long parseNanos;
+		long renderNanos;
+		String command; // null until parsed
+
+		LineProfile(final int number, final String text) {
+			this.number = number;
+			this.text = text;
+		}
+
+		long getConversionNanos() {
+			long nanos = 0;
+			for (final Long conversion : conversionNanos.values()) {
+				nanos += conversion;
+			}
+			return nanos;
+		}
+
+		long getTotalNanos() {
+			// Conversion is part of parsing
+			return parseNanos + executeNanos + renderNanos;
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package org.springframework.roo.shell;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+/**
+ * Reads the lines of a script in order, for the "script" command.
+ */
+abstract class ScriptReader {
+
+	/**
+	 * Returns a reader of the given text, which parses nothing in advance
+	 *
+	 * @param in the text of the script (required)
+	 * @param firstLineNumber the number of the first line that will be read
+	 * @return a non-<code>null</code> reader
+	 */
+	static ScriptReader forText(final BufferedReader in, final int firstLineNumber) {
+		return new ScriptReader() {
+			private int number = firstLineNumber - 1;
+
+			@Override
+			ScriptLine next() throws IOException {
+				final String line = in.readLine();
+				return line == null ? null : new ScriptLine(++number, line);
+			}
+		};
+	}
+
+	/**
+	 * Returns the next line of the script
+	 *
+	 * @return <code>null</code> at the end of the script
+	 * @throws IOException if the script couldn't be read
+	 */
+	abstract ScriptLine next() throws IOException;
+
+	/**
+	 * Stops reading the script; the underlying stream is closed by the caller
+	 */
+	void close() {}
+}
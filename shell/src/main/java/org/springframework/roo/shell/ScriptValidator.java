@@ -0,0 +1,158 @@
+package org.springframework.roo.shell;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.springframework.roo.support.logging.HandlerUtils;
+import org.springframework.roo.support.util.Assert;
+
+/**
+ * Checks the lines of a script before any of them are executed, so that a mistake late in a long
+ * script is reported before the lines above it have changed anything.
+ *
+ * <p>
+ * Each line is {@link Parser#compile(String) compiled} by a pool of threads, and every invalid line
+ * is then reported in order, with its number and the messages logged while compiling it. Neither
+ * command availability nor options without a {@link SideEffectFreeConverter} can be checked in
+ * advance, as they can depend on the commands executed in between. For the same reason, a line
+ * naming a command the {@link SimpleParser} doesn't know yet, e.g. one that an add-on installed by
+ * an earlier line will provide, is only reported as unknown until run, rather than as invalid.
+ */
+final class ScriptValidator {
+
+	// Constants
+	private static final Logger LOGGER = HandlerUtils.getLogger(ScriptValidator.class);
+
+	// Fields
+	private final Parser parser;
+	private final int threads;
+
+	/**
+	 * Constructor
+	 *
+	 * @param parser the parser with which to compile each line (required)
+	 * @param threads the number of threads with which to do so (at least one)
+	 */
+	ScriptValidator(final Parser parser, final int threads) {
+		Assert.notNull(parser, "Parser required");
+		Assert.isTrue(threads > 0, "At least one thread is required");
+		this.parser = parser;
+		this.threads = threads;
+	}
+
+	/**
+	 * Validates the given lines of the given script
+	 *
+	 * @param in the script, from its first line (required)
+	 * @param fromLine the number of the first line to validate
+	 * @param toLine the number of the last line to validate (<code>null</code> means the end of the script)
+	 * @return the number of invalid lines, each of which has been logged (as has each line whose
+	 * command is unknown until run, without being counted)
+	 * @throws IOException if the script couldn't be read
+	 */
+	int validate(final BufferedReader in, final int fromLine, final Integer toLine) throws IOException {
+		final ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(final Runnable runnable) {
+				final Thread thread = new Thread(runnable, "Script validator");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			final List<Future<LineResult>> results = new ArrayList<Future<LineResult>>();
+			// The comments are tracked from the start of the script, even if validating from later on
+			final ScriptComments comments = new ScriptComments(false);
+			String line;
+			int i = 0;
+			while ((line = in.readLine()) != null && (toLine == null || i < toLine)) {
+				i++;
+				final String text = comments.getCommandText(line);
+				if (i >= fromLine && text != null) {
+					results.add(executor.submit(new LineValidation(i, line, text)));
+				}
+			}
+
+			int invalidLines = 0;
+			for (final Future<LineResult> result : results) {
+				final LineResult lineResult = result.get();
+				if (!lineResult.valid && !lineResult.knownCommand) {
+					LOGGER.warning("Line " + lineResult.number + " uses a command unknown until run: " + lineResult.line);
+				} else if (!lineResult.valid) {
+					LOGGER.warning("Line " + lineResult.number + " is invalid: " + lineResult.line);
+					LogCapture.publish(lineResult.messages);
+					invalidLines++;
+				}
+			}
+			return invalidLines;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while validating the script");
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Compiles one line, capturing any messages for publication in line order.
+	 */
+	private class LineValidation implements Callable<LineResult> {
+		private final int number;
+		private final String line;
+		private final String text;
+
+		LineValidation(final int number, final String line, final String text) {
+			this.line = line;
+			this.number = number;
+			this.text = text;
+		}
+
+		public LineResult call() {
+			boolean valid = false;
+			boolean knownCommand = true;
+			List<LogRecord> messages;
+			LogCapture.start();
+			try {
+				valid = parser.compile(text) != null;
+				if (!valid && parser instanceof SimpleParser) {
+					knownCommand = ((SimpleParser) parser).isCommand(text);
+				}
+			} catch (RuntimeException e) {
+				LOGGER.warning(e.getClass().getName() + ": " + e.getMessage());
+			} finally {
+				messages = LogCapture.stop();
+			}
+			return new LineResult(number, line, valid, knownCommand, messages);
+		}
+	}
+
+	/**
+	 * The outcome of validating a line.
+	 */
+	private static class LineResult {
+		final boolean valid;
+		final boolean knownCommand; // whether the parser knew the line's command when it was validated
+		final int number;
+		final List<LogRecord> messages;
+		final String line;
+
+		LineResult(final int number, final String line, final boolean valid, final boolean knownCommand, final List<LogRecord> messages) {
+			this.knownCommand = knownCommand;
+			this.line = line;
+			this.messages = messages;
+			this.number = number;
+			this.valid = valid;
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package org.springframework.roo.shell;
+
+/**
+ * Marks a {@link Converter} whose {@link Converter#convertFromText(String, Class, String)} depends
+ * only on its arguments, changes nothing, and can be called from any thread, and whose
+ * {@link Converter#supports(Class, String)} likewise depends only on its arguments.
+ *
+ * <p>
+ * Such conversions can be performed ahead of time, e.g. to validate a script before any of its
+ * commands have been executed; options whose converters aren't so marked are then validated only
+ * to the extent that they're given where required.
+ *
+ * @param <T> the type being converted to/from
+ * @see Parser#compile(String)
+ * @since 1.2.1
+ */
+public interface SideEffectFreeConverter<T> extends Converter<T> {
+}
@@ -0,0 +1,76 @@
+package org.springframework.roo.shell;
+
+import org.springframework.roo.shell.CommandDescriptor.Option;
+import org.springframework.roo.support.util.Assert;
+
+/**
+ * The {@link PreparedCommand} of a {@link SimpleParser}; it remembers the command and the converter for
+ * each of its options, as found in the parser's registry at the time it was prepared.
+ */
+final class SimplePreparedCommand implements PreparedCommand {
+
+	// Fields
+	private final CommandDescriptor command;
+	private final Converter<?>[] converters; // in order of the command's options; null for those without one
+	private final ParserRegistry registry;
+	private final SimpleParser parser;
+	private final String template;
+	private final String templateRemaining;
+
+	/**
+	 * Constructor
+	 *
+	 * @param parser the parser that prepared this command (required)
+	 * @param registry the parser's registry at the time (required)
+	 * @param command the command matched by the template (required)
+	 * @param template the normalised template (required)
+	 * @param templateRemaining the part of the template after the command itself (can be empty)
+	 */
+	SimplePreparedCommand(final SimpleParser parser, final ParserRegistry registry, final CommandDescriptor command, final String template, final String templateRemaining) {
+		this.command = command;
+		this.parser = parser;
+		this.registry = registry;
+		this.template = template;
+		this.templateRemaining = templateRemaining;
+		this.converters = new Converter<?>[command.getOptions().size()];
+		for (int i = 0; i < converters.length; i++) {
+			final Option option = command.getOptions().get(i);
+			if (!option.isSystemProvided()) {
+				converters[i] = registry.getConverter(option.getType(), option.getOptionContext());
+			}
+		}
+	}
+
+	public String getTemplate() {
+		return template;
+	}
+
+	public ParseResult bind(final String options) {
+		Assert.notNull(options, "Options required");
+		final String normalisedOptions = parser.normalise(options);
+		if (parser.getRegistry() != registry) {
+			// Commands or converters have been added or removed since this was prepared, so start afresh
+			return parser.parse(join(template, normalisedOptions));
+		}
+		if (!parser.isAvailable(registry, command)) {
+			parser.commandUnavailable(join(template, normalisedOptions));
+			return null;
+		}
+		return parser.parseOptions(registry, command, join(templateRemaining, normalisedOptions), converters, true);
+	}
+
+	private String join(final String first, final String second) {
+		if (first.length() == 0) {
+			return second;
+		}
+		if (second.length() == 0) {
+			return first;
+		}
+		return first + " " + second;
+	}
+
+	@Override
+	public String toString() {
+		return template;
+	}
+}
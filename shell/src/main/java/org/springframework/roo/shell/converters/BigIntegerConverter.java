@@ -6,6 +6,7 @@ import java.util.List;
 import org.springframework.roo.shell.Completion;
 import org.springframework.roo.shell.Converter;
 import org.springframework.roo.shell.MethodTarget;
+import org.springframework.roo.shell.SideEffectFreeConverter;
 
 
 
@@ -15,7 +16,7 @@ import org.springframework.roo.shell.MethodTarget;
  * @author Stefan Schmidt
  * @since 1.0
  */
-public class BigIntegerConverter implements Converter<BigInteger> {
+public class BigIntegerConverter implements SideEffectFreeConverter<BigInteger> {
 
 	public BigInteger convertFromText(final String value, final Class<?> requiredType, final String optionContext) {
 		return new BigInteger(value);
@@ -5,6 +5,7 @@ import java.util.List;
 import org.springframework.roo.shell.Completion;
 import org.springframework.roo.shell.Converter;
 import org.springframework.roo.shell.MethodTarget;
+import org.springframework.roo.shell.SideEffectFreeConverter;
 
 
 
@@ -14,7 +15,7 @@ import org.springframework.roo.shell.MethodTarget;
  * @author Stefan Schmidt
  * @since 1.0
  */
-public class CharacterConverter implements Converter<Character> {
+public class CharacterConverter implements SideEffectFreeConverter<Character> {
 
 	public Character convertFromText(final String value, final Class<?> requiredType, final String optionContext) {
 		return value.charAt(0);
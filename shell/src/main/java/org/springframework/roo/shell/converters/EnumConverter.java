@@ -5,6 +5,7 @@ import java.util.List;
 import org.springframework.roo.shell.Completion;
 import org.springframework.roo.shell.Converter;
 import org.springframework.roo.shell.MethodTarget;
+import org.springframework.roo.shell.SideEffectFreeConverter;
 
 
 
@@ -16,7 +17,7 @@ import org.springframework.roo.shell.MethodTarget;
  * @since 1.0
  */
 @SuppressWarnings("all")
-public class EnumConverter implements Converter<Enum> {
+public class EnumConverter implements SideEffectFreeConverter<Enum> {
 
 	public Enum convertFromText(final String value, final Class<?> requiredType, final String optionContext) {
 		Class<Enum> enumClass = (Class<Enum>) requiredType;
@@ -6,6 +6,7 @@ import java.util.Locale;
 import org.springframework.roo.shell.Completion;
 import org.springframework.roo.shell.Converter;
 import org.springframework.roo.shell.MethodTarget;
+import org.springframework.roo.shell.SideEffectFreeConverter;
 
 
 
@@ -17,7 +18,7 @@ import org.springframework.roo.shell.MethodTarget;
  * @author Stefan Schmidt
  * @since 1.1
  */
-public class LocaleConverter implements Converter<Locale> {
+public class LocaleConverter implements SideEffectFreeConverter<Locale> {
 
 	public Locale convertFromText(final String value, final Class<?> requiredType, final String optionContext) {
 		if (value.length() == 2) {
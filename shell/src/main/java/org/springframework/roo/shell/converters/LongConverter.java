@@ -5,6 +5,7 @@ import java.util.List;
 import org.springframework.roo.shell.Completion;
 import org.springframework.roo.shell.Converter;
 import org.springframework.roo.shell.MethodTarget;
+import org.springframework.roo.shell.SideEffectFreeConverter;
 
 
 
@@ -14,7 +15,7 @@ import org.springframework.roo.shell.MethodTarget;
  * @author Stefan Schmidt
  * @since 1.0
  */
-public class LongConverter implements Converter<Long> {
+public class LongConverter implements SideEffectFreeConverter<Long> {
 
 	public Long convertFromText(final String value, final Class<?> requiredType, final String optionContext) {
 		return new Long(value);
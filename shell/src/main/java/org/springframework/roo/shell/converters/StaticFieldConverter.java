@@ -1,15 +1,17 @@
 package org.springframework.roo.shell.converters;
 
 import org.springframework.roo.shell.Converter;
+import org.springframework.roo.shell.event.ConverterSupportProvider;
 
 /**
  * Interface for adding and removing classes that provide static fields which should
- * be made available via a {@link Converter}.
+ * be made available via a {@link Converter}. As adding or removing a class changes the types
+ * this converter supports, each does so notifies its {@link ConverterSupportProvider} listeners.
  *
  * @author Ben Alex
  * @since 1.0
  */
-public interface StaticFieldConverter extends Converter<Object> {
+public interface StaticFieldConverter extends Converter<Object>, ConverterSupportProvider {
 
 	void add(Class<?> clazz);
 
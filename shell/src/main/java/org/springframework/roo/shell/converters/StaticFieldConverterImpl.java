@@ -5,10 +5,13 @@ import java.lang.reflect.Modifier;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.springframework.roo.shell.Completion;
 import org.springframework.roo.shell.Converter;
 import org.springframework.roo.shell.MethodTarget;
+import org.springframework.roo.shell.event.ConverterSupportListener;
+import org.springframework.roo.shell.event.ConverterSupportProvider;
 import org.springframework.roo.support.util.Assert;
 import org.springframework.roo.support.util.StringUtils;
 
@@ -26,6 +29,7 @@ public class StaticFieldConverterImpl implements StaticFieldConverter {
 
 	// Fields
 	private final Map<Class<?>,Map<String,Field>> fields = new HashMap<Class<?>,Map<String,Field>>();
+	private final List<ConverterSupportListener> listeners = new CopyOnWriteArrayList<ConverterSupportListener>();
 
 	public void add(final Class<?> clazz) {
 		Assert.notNull(clazz, "A class to provide conversion services is required");
@@ -39,11 +43,30 @@ public class StaticFieldConverterImpl implements StaticFieldConverter {
 		}
 		Assert.notEmpty(ffields, "Zero public static fields accessible in '" + clazz + "'");
 		fields.put(clazz, ffields);
+		fireSupportChange();
 	}
 
 	public void remove(final Class<?> clazz) {
 		Assert.notNull(clazz, "A class that was providing conversion services is required");
-		fields.remove(clazz);
+		if (fields.remove(clazz) != null) {
+			fireSupportChange();
+		}
+	}
+
+	public void addConverterSupportListener(final ConverterSupportListener listener) {
+		Assert.notNull(listener, "Listener required");
+		listeners.add(listener);
+	}
+
+	public void removeConverterSupportListener(final ConverterSupportListener listener) {
+		Assert.notNull(listener, "Listener required");
+		listeners.remove(listener);
+	}
+
+	private void fireSupportChange() {
+		for (final ConverterSupportListener listener : listeners) {
+			listener.onConverterSupportChange(this);
+		}
 	}
 
 	public Object convertFromText(final String value, final Class<?> requiredType, final String optionContext) {
@@ -0,0 +1,16 @@
+package org.springframework.roo.shell.event;
+
+/**
+ * Implemented by classes that wish to be notified when the availability of the commands offered by a
+ * {@link CommandAvailabilityProvider} may have changed.
+ */
+public interface CommandAvailabilityListener {
+
+	/**
+	 * Invoked by a provider to report that one or more of its availability indicators may now return a
+	 * different result.
+	 *
+	 * @param provider the provider whose commands' availability may have changed (never null)
+	 */
+	void onCommandAvailabilityChange(CommandAvailabilityProvider provider);
+}
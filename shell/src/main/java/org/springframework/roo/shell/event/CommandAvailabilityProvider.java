@@ -0,0 +1,38 @@
+package org.springframework.roo.shell.event;
+
+import org.springframework.roo.shell.CliAvailabilityIndicator;
+import org.springframework.roo.shell.CommandMarker;
+
+/**
+ * Implemented by {@link CommandMarker}s that notify listeners whenever the result of any of their
+ * {@link CliAvailabilityIndicator} methods may have changed.
+ *
+ * <p>
+ * The parser remembers the result of each availability indicator of such a command marker until it
+ * is notified of a change, instead of invoking the indicator every time the user parses or completes
+ * a command. Implementations must therefore notify their listeners of <em>every</em> such change,
+ * typically from whichever observer already maintains the state the indicators report.
+ *
+ * <p>
+ * Implementations must permit modification of the listener list, even while delivering
+ * notifications to listeners.
+ */
+public interface CommandAvailabilityProvider {
+
+	/**
+	 * Registers a new availability listener.
+	 *
+	 * @param listener to register (cannot be null)
+	 */
+	void addCommandAvailabilityListener(CommandAvailabilityListener listener);
+
+	/**
+	 * Removes an existing availability listener.
+	 *
+	 * <p>
+	 * If the presented listener is not found, the method returns without exception.
+	 *
+	 * @param listener to remove (cannot be null)
+	 */
+	void removeCommandAvailabilityListener(CommandAvailabilityListener listener);
+}
@@ -0,0 +1,16 @@
+package org.springframework.roo.shell.event;
+
+/**
+ * Implemented by classes that wish to be notified when the types supported by a
+ * {@link ConverterSupportProvider} may have changed.
+ */
+public interface ConverterSupportListener {
+
+	/**
+	 * Invoked by a provider to report that its <code>supports</code> method may now return a different
+	 * result.
+	 *
+	 * @param provider the provider whose support may have changed (never null)
+	 */
+	void onConverterSupportChange(ConverterSupportProvider provider);
+}
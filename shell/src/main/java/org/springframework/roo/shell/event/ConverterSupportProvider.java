@@ -0,0 +1,37 @@
+package org.springframework.roo.shell.event;
+
+import org.springframework.roo.shell.Converter;
+
+/**
+ * Implemented by {@link Converter}s that notify listeners whenever the result of their
+ * {@link Converter#supports(Class, String)} method may have changed.
+ *
+ * <p>
+ * The parser remembers which converter supports each type of option until a converter is added or
+ * removed, or one of these providers notifies it of a change, instead of asking every converter each
+ * time the user parses or completes a command. Converters whose support can change must therefore
+ * implement this interface and notify their listeners of <em>every</em> such change.
+ *
+ * <p>
+ * Implementations must permit modification of the listener list, even while delivering
+ * notifications to listeners.
+ */
+public interface ConverterSupportProvider {
+
+	/**
+	 * Registers a new support listener.
+	 *
+	 * @param listener to register (cannot be null)
+	 */
+	void addConverterSupportListener(ConverterSupportListener listener);
+
+	/**
+	 * Removes an existing support listener.
+	 *
+	 * <p>
+	 * If the presented listener is not found, the method returns without exception.
+	 *
+	 * @param listener to remove (cannot be null)
+	 */
+	void removeConverterSupportListener(ConverterSupportListener listener);
+}
@@ -1,11 +1,45 @@
 package org.springframework.roo.shell;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.springframework.roo.shell.AbstractShell;
+import org.springframework.roo.shell.converters.StringConverter;
 
 
 
@@ -31,4 +65,530 @@ public class AbstractShellTest {
 		// Check
 		assertNotNull(props);
 	}
+
+	@Test
+	public void testPipelinedScriptDoesNotExecuteLinesAfterFailure() throws Exception {
+		// Set up
+		final Parser parser = mock(Parser.class);
+		final ExecutionStrategy executionStrategy = mock(ExecutionStrategy.class);
+		when(executionStrategy.isReadyForCommands()).thenReturn(true);
+		when(parser.getFingerprint()).thenReturn("commands");
+		final ParseResult first = compileAndBind(parser, "first");
+		final ParseResult second = compileAndBind(parser, "second");
+		final ParseResult third = compileAndBind(parser, "third");
+		when(executionStrategy.execute(second)).thenThrow(new IllegalArgumentException("Failed"));
+		final File script = newScript("first", "second", "third");
+
+		// Invoke
+		try {
+			new TestShell(parser, executionStrategy).script(script, false, true, null, null, false, false, false, null);
+			fail("Expected the script to be aborted");
+		} catch (IllegalStateException expected) {
+			assertEquals("Script execution aborted", expected.getMessage());
+		}
+
+		// Check
+		verify(executionStrategy).execute(first);
+		verify(executionStrategy, never()).execute(third);
+	}
+
+	@Test
+	public void testPipelinedScriptAbortsWhenEarlierLineMakesCommandUnavailable() throws Exception {
+		// Set up
+		final Parser parser = mock(Parser.class);
+		final ExecutionStrategy executionStrategy = mock(ExecutionStrategy.class);
+		when(executionStrategy.isReadyForCommands()).thenReturn(true);
+		when(parser.getFingerprint()).thenReturn("commands");
+		final ParseResult first = compileAndBind(parser, "first");
+		final CompiledCommand secondCommand = new CompiledCommand("second", new String[0], new String[0]);
+		when(parser.compile("second")).thenReturn(secondCommand);
+		final AtomicInteger executed = new AtomicInteger();
+		when(executionStrategy.execute(first)).thenAnswer(new Answer<Object>() {
+			public Object answer(final InvocationOnMock invocation) {
+				executed.incrementAndGet();
+				return null;
+			}
+		});
+		// Only available until the first line has executed
+		when(parser.bind(secondCommand)).thenAnswer(new Answer<ParseResult>() {
+			public ParseResult answer(final InvocationOnMock invocation) throws Exception {
+				return executed.get() == 0 ? newParseResult() : null;
+			}
+		});
+		final File script = newScript("first", "second");
+
+		// Invoke
+		try {
+			new TestShell(parser, executionStrategy).script(script, false, true, null, null, false, false, false, null);
+			fail("Expected the script to be aborted");
+		} catch (IllegalStateException expected) {
+			assertEquals("Script execution aborted", expected.getMessage());
+		}
+
+		// Check
+		assertEquals(1, executed.get());
+		verify(parser, never()).parse(anyString());
+	}
+
+	@Test
+	public void testPipelinedScriptCompilesAheadButReportsInOrder() throws Exception {
+		// Set up
+		final Thread executingThread = Thread.currentThread();
+		final List<String> events = new CopyOnWriteArrayList<String>();
+		final List<Thread> compilingThreads = new CopyOnWriteArrayList<Thread>();
+		final Parser parser = mock(Parser.class);
+		final ExecutionStrategy executionStrategy = mock(ExecutionStrategy.class);
+		when(executionStrategy.isReadyForCommands()).thenReturn(true);
+		when(parser.getFingerprint()).thenReturn("commands");
+		final ParseResult first = newParseResult();
+		final ParseResult second = newParseResult();
+		when(parser.compile(anyString())).thenAnswer(new Answer<CompiledCommand>() {
+			public CompiledCommand answer(final InvocationOnMock invocation) {
+				compilingThreads.add(Thread.currentThread());
+				final String line = (String) invocation.getArguments()[0];
+				Logger.getLogger(AbstractShellTest.class.getName()).warning("Compiled " + line);
+				return new CompiledCommand(line, new String[0], new String[0]);
+			}
+		});
+		when(parser.bind(any(CompiledCommand.class))).thenAnswer(new Answer<ParseResult>() {
+			public ParseResult answer(final InvocationOnMock invocation) {
+				final String line = ((CompiledCommand) invocation.getArguments()[0]).getCommand();
+				Logger.getLogger(AbstractShellTest.class.getName()).warning("Bound " + line);
+				return "first".equals(line) ? first : second;
+			}
+		});
+		when(executionStrategy.execute(first)).thenAnswer(new Answer<Object>() {
+			public Object answer(final InvocationOnMock invocation) {
+				events.add("Executed first");
+				return null;
+			}
+		});
+		when(executionStrategy.execute(second)).thenAnswer(new Answer<Object>() {
+			public Object answer(final InvocationOnMock invocation) {
+				events.add("Executed second");
+				return null;
+			}
+		});
+		final Handler handler = new Handler() {
+			@Override
+			public void publish(final LogRecord record) {
+				if (isLoggable(record) && record.getLevel() == Level.WARNING) {
+					events.add(record.getMessage());
+				}
+			}
+
+			@Override
+			public void flush() {}
+
+			@Override
+			public void close() {}
+		};
+		final File script = newScript("first", "second");
+
+		// Invoke
+		Logger.getLogger("").addHandler(handler);
+		try {
+			new TestShell(parser, executionStrategy).script(script, false, true, null, null, false, false, false, null);
+		} finally {
+			Logger.getLogger("").removeHandler(handler);
+		}
+
+		// Check
+		assertEquals(Arrays.asList("Bound first", "Executed first", "Bound second", "Executed second"), events);
+		assertEquals(2, compilingThreads.size());
+		for (final Thread compilingThread : compilingThreads) {
+			assertNotSame(executingThread, compilingThread);
+		}
+		assertNull("Capturing filter left in place", handler.getFilter());
+	}
+
+	@Test
+	public void testScriptExecutesRequestedLines() throws Exception {
+		// Set up
+		final Parser parser = mock(Parser.class);
+		final ExecutionStrategy executionStrategy = mock(ExecutionStrategy.class);
+		when(executionStrategy.isReadyForCommands()).thenReturn(true);
+		final ParseResult first = newParseResult();
+		final ParseResult second = newParseResult();
+		final ParseResult third = newParseResult();
+		final ParseResult fourth = newParseResult();
+		when(parser.parse("first")).thenReturn(first);
+		when(parser.parse("second")).thenReturn(second);
+		when(parser.parse("third")).thenReturn(third);
+		when(parser.parse("fourth")).thenReturn(fourth);
+		final File script = newScript("first", "second", "third", "fourth");
+
+		// Invoke
+		new TestShell(parser, executionStrategy).script(script, false, false, 2, 3, false, false, false, null);
+
+		// Check
+		verify(executionStrategy, never()).execute(first);
+		verify(executionStrategy).execute(second);
+		verify(executionStrategy).execute(third);
+		verify(executionStrategy, never()).execute(fourth);
+	}
+
+	@Test
+	public void testScriptStartedWithinBlockCommentSkipsCommentedLines() throws Exception {
+		// Set up
+		final Parser parser = mock(Parser.class);
+		final ExecutionStrategy executionStrategy = mock(ExecutionStrategy.class);
+		when(executionStrategy.isReadyForCommands()).thenReturn(true);
+		final ParseResult commented = newParseResult();
+		final ParseResult second = newParseResult();
+		when(parser.parse("commented")).thenReturn(commented);
+		when(parser.parse("second")).thenReturn(second);
+		final File script = newScript("first", "/*", "commented", "*/", "second");
+
+		// Invoke
+		new TestShell(parser, executionStrategy).script(script, false, false, 3, null, false, false, false, null);
+
+		// Check
+		verify(executionStrategy, never()).execute(commented);
+		verify(executionStrategy).execute(second);
+	}
+
+	@Test
+	public void testScriptStartedAfterCommentMarkersOutsideBlockCommentExecutesLines() throws Exception {
+		// Set up
+		final Parser parser = mock(Parser.class);
+		final ExecutionStrategy executionStrategy = mock(ExecutionStrategy.class);
+		when(executionStrategy.isReadyForCommands()).thenReturn(true);
+		final ParseResult first = newParseResult();
+		final ParseResult second = newParseResult();
+		when(parser.parse("first")).thenReturn(first);
+		when(parser.parse("second")).thenReturn(second);
+		final File script = newScript("// see src/*", "add --pattern src/*.java", "first", "/* inline */", "second");
+
+		// Invoke
+		new TestShell(parser, executionStrategy).script(script, false, false, 3, null, false, false, false, null);
+
+		// Check
+		verify(executionStrategy).execute(first);
+		verify(executionStrategy).execute(second);
+	}
+
+	@Test
+	public void testValidatedScriptChecksLinesAfterCommentMarkersOutsideBlockComment() throws Exception {
+		// Set up
+		final Parser parser = mock(Parser.class);
+		final ExecutionStrategy executionStrategy = mock(ExecutionStrategy.class);
+		when(executionStrategy.isReadyForCommands()).thenReturn(true);
+		when(parser.compile(anyString())).thenReturn(new CompiledCommand("any", new String[0], new String[0]));
+		final ParseResult add = newParseResult();
+		final ParseResult first = newParseResult();
+		when(parser.parse("add --pattern src/*.java")).thenReturn(add);
+		when(parser.parse("first")).thenReturn(first);
+		final File script = newScript("// see src/*", "add --pattern src/*.java", "/* inline */", "first");
+
+		// Invoke
+		new TestShell(parser, executionStrategy).script(script, false, false, null, null, false, true, false, null);
+
+		// Check
+		verify(parser).compile("add --pattern src/*.java");
+		verify(parser).compile("first");
+		verify(executionStrategy).execute(add);
+		verify(executionStrategy).execute(first);
+	}
+
+	@Test
+	public void testScriptResumesFromFailedLine() throws Exception {
+		// Set up
+		final Parser parser = mock(Parser.class);
+		final ExecutionStrategy executionStrategy = mock(ExecutionStrategy.class);
+		when(executionStrategy.isReadyForCommands()).thenReturn(true);
+		final ParseResult first = newParseResult();
+		final ParseResult second = newParseResult();
+		final ParseResult third = newParseResult();
+		when(parser.parse("first")).thenReturn(first);
+		when(parser.parse("second")).thenReturn(second);
+		when(parser.parse("third")).thenReturn(third);
+		when(executionStrategy.execute(second)).thenThrow(new IllegalArgumentException("Failed")).thenReturn(null);
+		final File script = newScript("first", "second", "third");
+		final File checkpoint = new File(script.getPath() + ".checkpoint");
+		checkpoint.deleteOnExit();
+		final TestShell shell = new TestShell(parser, executionStrategy);
+		try {
+			shell.script(script, false, false, null, null, false, false, false, null);
+			fail("Expected the script to be aborted");
+		} catch (IllegalStateException expected) {
+			assertTrue(checkpoint.isFile());
+		}
+
+		// Invoke
+		shell.script(script, false, false, null, null, true, false, false, null);
+
+		// Check
+		verify(executionStrategy, times(1)).execute(first);
+		verify(executionStrategy, times(2)).execute(second);
+		verify(executionStrategy, times(1)).execute(third);
+		assertFalse(checkpoint.exists());
+	}
+
+	@Test
+	public void testCompiledScriptIsBoundRatherThanParsed() throws Exception {
+		// Set up
+		final Parser parser = mock(Parser.class);
+		final ExecutionStrategy executionStrategy = mock(ExecutionStrategy.class);
+		when(executionStrategy.isReadyForCommands()).thenReturn(true);
+		when(parser.getFingerprint()).thenReturn("commands");
+		final CompiledCommand compiledCommand = new CompiledCommand("first", new String[] {"name"}, new String[] {"value"});
+		when(parser.compile("first --name value")).thenReturn(compiledCommand);
+		final ParseResult first = newParseResult();
+		when(parser.bind(compiledCommand)).thenReturn(first);
+		final File script = newScript("// comment", "first --name value");
+		final File compiled = new File(script.getPath() + ".compiled");
+		compiled.deleteOnExit();
+		final TestShell shell = new TestShell(parser, executionStrategy);
+		shell.compileScript(script, null);
+
+		// Invoke
+		shell.script(script, false, false, null, null, false, false, false, null);
+
+		// Check
+		assertTrue(compiled.isFile());
+		verify(executionStrategy).execute(first);
+		verify(parser, never()).parse(anyString());
+	}
+
+	@Test
+	public void testCompiledScriptIsParsedOnceCommandsChange() throws Exception {
+		// Set up
+		final Parser parser = mock(Parser.class);
+		final ExecutionStrategy executionStrategy = mock(ExecutionStrategy.class);
+		when(executionStrategy.isReadyForCommands()).thenReturn(true);
+		when(parser.getFingerprint()).thenReturn("old commands", "new commands");
+		final CompiledCommand compiledCommand = new CompiledCommand("first", new String[0], new String[0]);
+		when(parser.compile("first")).thenReturn(compiledCommand);
+		final ParseResult first = newParseResult();
+		when(parser.parse("first")).thenReturn(first);
+		final File script = newScript("first");
+		final File compiled = new File(script.getPath() + ".compiled");
+		compiled.deleteOnExit();
+		final TestShell shell = new TestShell(parser, executionStrategy);
+		shell.compileScript(script, compiled);
+
+		// Invoke
+		shell.script(compiled, false, false, null, null, false, false, false, null);
+
+		// Check
+		verify(executionStrategy).execute(first);
+		verify(parser, never()).bind(compiledCommand);
+	}
+
+	@Test
+	public void testValidatedScriptExecutesNothingIfAnyLineIsInvalid() throws Exception {
+		// Set up
+		final Parser parser = mock(Parser.class);
+		final ExecutionStrategy executionStrategy = mock(ExecutionStrategy.class);
+		when(executionStrategy.isReadyForCommands()).thenReturn(true);
+		when(parser.compile("first")).thenReturn(new CompiledCommand("first", new String[0], new String[0]));
+		when(parser.compile("second")).thenReturn(null);
+		final File script = newScript("first", "second");
+
+		// Invoke
+		try {
+			new TestShell(parser, executionStrategy).script(script, false, false, null, null, false, true, false, null);
+			fail("Expected the script to be rejected");
+		} catch (IllegalStateException expected) {
+			assertTrue(expected.getMessage().contains("1 invalid line"));
+		}
+
+		// Check
+		verify(parser).compile("first");
+		verify(parser, never()).parse(anyString());
+	}
+
+	@Test
+	public void testValidatedScriptExecutesLineUsingCommandAddedByEarlierLine() throws Exception {
+		// Set up
+		final SimpleParser parser = new SimpleParser();
+		parser.add(new InstallingCommands(parser));
+		final ExecutionStrategy executionStrategy = mock(ExecutionStrategy.class);
+		when(executionStrategy.isReadyForCommands()).thenReturn(true);
+		final List<Object> results = new CopyOnWriteArrayList<Object>();
+		when(executionStrategy.execute(any(ParseResult.class))).thenAnswer(new Answer<Object>() {
+			public Object answer(final InvocationOnMock invocation) {
+				final Object result = ((ParseResult) invocation.getArguments()[0]).invoke();
+				results.add(String.valueOf(result));
+				return result;
+			}
+		});
+		final File script = newScript("addon install", "greet --name Bob");
+
+		// Invoke
+		new TestShell(parser, executionStrategy).script(script, false, false, null, null, false, true, false, null);
+
+		// Check
+		assertEquals(Arrays.<Object> asList("null", "Hello Bob"), results);
+	}
+
+		@Test
+	public void testProfiledScriptWritesTimingsOfEachCommand() throws Exception {
+		// Set up
+		final Parser parser = mock(Parser.class);
+		final ExecutionStrategy executionStrategy = mock(ExecutionStrategy.class);
+		when(executionStrategy.isReadyForCommands()).thenReturn(true);
+		final ParseResult first = newParseResult();
+		final ParseResult second = newParseResult();
+		when(parser.parse("first")).thenReturn(first);
+		when(parser.parse("second")).thenReturn(second);
+		final File script = newScript("first", "// comment", "second");
+		final File profile = File.createTempFile("profile", ".json");
+		profile.deleteOnExit();
+
+		// Invoke
+		new TestShell(parser, executionStrategy).script(script, false, false, null, null, false, false, true, profile);
+
+		// Check
+		final String timings = read(profile);
+		assertTrue(timings, timings.contains("{\"line\": 1, \"command\": \"toString\""));
+		assertFalse(timings, timings.contains("\"line\": 2,"));
+		assertTrue(timings, timings.contains("\"line\": 3,"));
+		assertTrue(timings, timings.contains("\"text\": \"second\"}"));
+	}
+
+	@Test
+	public void testExecuteCommandAwaitsNotificationOfReadiness() throws Exception {
+		// Set up
+		final Parser parser = mock(Parser.class);
+		final AwaitableExecutionStrategy executionStrategy = mock(AwaitableExecutionStrategy.class);
+		when(executionStrategy.isReadyForCommands()).thenReturn(false, true);
+		when(executionStrategy.awaitReadyForCommands(anyLong(), eq(TimeUnit.MILLISECONDS))).thenReturn(true);
+		final ParseResult first = newParseResult();
+		when(parser.parse("first")).thenReturn(first);
+
+		// Invoke
+		final boolean success = new TestShell(parser, executionStrategy).executeCommand("first");
+
+		// Check
+		assertTrue(success);
+		verify(executionStrategy).awaitReadyForCommands(anyLong(), eq(TimeUnit.MILLISECONDS));
+		verify(executionStrategy).execute(first);
+	}
+
+	@Test
+	public void testExecuteCommandWaitsForExecutionStrategyToBeProvided() throws Exception {
+		// Set up
+		final Parser parser = mock(Parser.class);
+		final ExecutionStrategy executionStrategy = mock(ExecutionStrategy.class);
+		when(executionStrategy.isReadyForCommands()).thenReturn(true);
+		final ParseResult first = newParseResult();
+		when(parser.parse("first")).thenReturn(first);
+		final AtomicInteger lookups = new AtomicInteger();
+		final TestShell shell = new TestShell(parser, executionStrategy) {
+			@Override
+			protected ExecutionStrategy getExecutionStrategy() {
+				// Not provided at first
+				return lookups.incrementAndGet() == 1 ? null : super.getExecutionStrategy();
+			}
+		};
+
+		// Invoke
+		final boolean success = shell.executeCommand("first");
+
+		// Check
+		assertTrue(success);
+		verify(executionStrategy).execute(first);
+	}
+
+	private ParseResult compileAndBind(final Parser parser, final String line) throws NoSuchMethodException {
+		final CompiledCommand compiledCommand = new CompiledCommand(line, new String[0], new String[0]);
+		final ParseResult parseResult = newParseResult();
+		when(parser.compile(line)).thenReturn(compiledCommand);
+		when(parser.bind(compiledCommand)).thenReturn(parseResult);
+		return parseResult;
+	}
+
+	private ParseResult newParseResult() throws NoSuchMethodException {
+		return new ParseResult(Object.class.getMethod("toString"), new Object(), null);
+	}
+
+	private String read(final File file) throws IOException {
+		final StringBuilder text = new StringBuilder();
+		final BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				text.append(line).append('\n');
+			}
+		} finally {
+			reader.close();
+		}
+		return text.toString();
+	}
+
+	private File newScript(final String... lines) throws IOException {
+		final File script = File.createTempFile("script", ".roo");
+		script.deleteOnExit();
+		final FileWriter writer = new FileWriter(script);
+		try {
+			for (final String line : lines) {
+				writer.write(line + "\n");
+			}
+		} finally {
+			writer.close();
+		}
+		return script;
+	}
+
+	/**
+	 * Commands that register more commands, as installing an add-on does.
+	 */
+	public static class InstallingCommands implements CommandMarker {
+
+		// Fields
+		private final SimpleParser parser;
+
+		InstallingCommands(final SimpleParser parser) {
+			this.parser = parser;
+		}
+
+		@CliCommand(value = "addon install", help = "Installs an add-on")
+		public void install() {
+			parser.add(new SimpleParserTest.TestCommands());
+			parser.add(new StringConverter());
+		}
+	}
+
+	/**
+	 * A shell that executes commands using the given collaborators.
+	 */
+	private static class TestShell extends AbstractShell {
+		private final ExecutionStrategy executionStrategy;
+		private final Parser parser;
+
+		TestShell(final Parser parser, final ExecutionStrategy executionStrategy) {
+			this.executionStrategy = executionStrategy;
+			this.parser = parser;
+		}
+
+		@Override
+		protected Collection<URL> findResources(final String path) {
+			return Collections.emptyList();
+		}
+
+		@Override
+		protected String getHomeAsString() {
+			return System.getProperty("java.io.tmpdir");
+		}
+
+		@Override
+		protected ExecutionStrategy getExecutionStrategy() {
+			return executionStrategy;
+		}
+
+		@Override
+		protected Parser getParser() {
+			return parser;
+		}
+
+		public void promptLoop() {}
+
+		public void setDevelopmentMode(final boolean developmentMode) {}
+
+		public boolean isDevelopmentMode() {
+			return false;
+		}
+	}
 }
@@ -0,0 +1,228 @@
+package org.springframework.roo.shell;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test of {@link ParserUtils}
+ */
+public class ParserUtilsTest {
+
+	// Constants
+	private static final char[] ALPHABET = { 'a', 'b', ' ', ' ', '"', '-', '-', '\t', 'x' };
+	private static final int RANDOM_BUFFERS = 200000;
+
+	@Test
+	public void testTokenizeEmptyBuffer() {
+		Assert.assertTrue(ParserUtils.tokenize("  ").isEmpty());
+	}
+
+	@Test
+	public void testTokenizeOptions() {
+		// Invoke
+		final Map<String, String> options = ParserUtils.tokenize("--name foo --flag --other \"a  b\"");
+
+		// Check
+		Assert.assertEquals("[name, flag, other]", options.keySet().toString());
+		Assert.assertEquals("foo", options.get("name"));
+		Assert.assertEquals("", options.get("flag"));
+		Assert.assertEquals("a  b", options.get("other"));
+	}
+
+	@Test
+	public void testTokenizeDefaultOptionWithSpaces() {
+		// Invoke
+		final Map<String, String> options = ParserUtils.tokenize("some  default value --name foo");
+
+		// Check
+		Assert.assertEquals("some default value", options.get(""));
+		Assert.assertEquals("foo", options.get("name"));
+	}
+
+	@Test
+	public void testTokenizeIgnoresWhitespaceTokens() {
+		// ROO-23
+		Assert.assertEquals("foo", ParserUtils.tokenize("--name \t foo").get("name"));
+	}
+
+	@Test
+	public void testTokenizeOmitsBlankDefaultOption() {
+		// ROO-379
+		Assert.assertFalse(ParserUtils.tokenize("\"  \" --name foo").containsKey(""));
+	}
+
+	@Test
+	public void testTokenizeUnbalancedQuotes() {
+		assertTokenizeFails("--name \"foo", "Cannot have an unbalanced number of quotation marks");
+	}
+
+	@Test
+	public void testTokenizeRepeatedOption() {
+		assertTokenizeFails("--name foo --name bar", "You cannot specify option 'name' more than once in a single command");
+	}
+
+	@Test
+	public void testTokenizeUnbalancedQuotesTakesPrecedence() {
+		assertTokenizeFails("--name foo --name bar \"", "Cannot have an unbalanced number of quotation marks");
+	}
+
+	@Test
+	public void testTokenizeMatchesLegacyImplementation() {
+		// Set up
+		final Random random = new Random(23);
+
+		for (int i = 0; i < RANDOM_BUFFERS; i++) {
+			final StringBuilder buffer = new StringBuilder();
+			final int length = random.nextInt(14);
+			for (int j = 0; j < length; j++) {
+				buffer.append(ALPHABET[random.nextInt(ALPHABET.length)]);
+			}
+
+			// Invoke and check
+			Assert.assertEquals("Buffer [" + buffer + "]", describeTokenize(buffer.toString(), true), describeTokenize(buffer.toString(), false));
+		}
+	}
+
+	private void assertTokenizeFails(final String buffer, final String expectedMessage) {
+		try {
+			ParserUtils.tokenize(buffer);
+			Assert.fail("Expected an IllegalArgumentException");
+		} catch (IllegalArgumentException expected) {
+			Assert.assertEquals(expectedMessage, expected.getMessage());
+		}
+	}
+
+	/**
+	 * Describes the outcome of tokenizing the given buffer, including the order of the options
+	 */
+	private String describeTokenize(final String buffer, final boolean legacy) {
+		final Map<String, String> options;
+		try {
+			options = legacy ? legacyTokenize(buffer) : ParserUtils.tokenize(buffer);
+		} catch (IllegalArgumentException e) {
+			return "error: " + e.getMessage();
+		}
+		final List<String> entries = new ArrayList<String>();
+		for (final Map.Entry<String, String> option : options.entrySet()) {
+			entries.add("[" + option.getKey() + "]=[" + option.getValue() + "]");
+		}
+		return entries.toString();
+	}
+
+	/**
+	 * The String#split based implementation that {@link ParserUtils#tokenize(String)} replaced, against which
+	 * the new one is checked.
+	 */
+	private Map<String, String> legacyTokenize(final String remainingBuffer) {
+		Map<String, String> result = new LinkedHashMap<String, String>();
+		StringBuilder currentOption = new StringBuilder();
+		StringBuilder currentValue = new StringBuilder();
+		boolean inQuotes = false;
+
+		int count = 0;
+		for (char c : remainingBuffer.toCharArray()) {
+			if ('"' == c) {
+				count++;
+			}
+		}
+		org.springframework.roo.support.util.Assert.isTrue(count % 2 == 0, "Cannot have an unbalanced number of quotation marks");
+
+		if ("".equals(remainingBuffer.trim())) {
+			return result;
+		}
+
+		String[] split = remainingBuffer.split(" ");
+		for (int i = 0; i < split.length; i++) {
+			String currentToken = split[i];
+
+			if (currentToken.startsWith("\"") && currentToken.endsWith("\"") && currentToken.length() > 1) {
+				currentValue.append(currentToken.substring(1, currentToken.length() - 1));
+				legacyStore(result, currentOption, currentValue);
+				currentOption = new StringBuilder();
+				currentValue = new StringBuilder();
+				continue;
+			}
+
+			if (inQuotes) {
+				if (currentToken.endsWith("\"")) {
+					currentValue.append(" ").append(currentToken.substring(0, currentToken.length() - 1));
+					inQuotes = false;
+					legacyStore(result, currentOption, currentValue);
+					currentOption = new StringBuilder();
+					currentValue = new StringBuilder();
+				} else {
+					currentValue.append(" ").append(currentToken);
+				}
+				continue;
+			}
+
+			if (currentToken.startsWith("\"")) {
+				currentValue.append(currentToken.substring(1));
+				inQuotes = true;
+				continue;
+			}
+
+			if (currentToken.trim().equals("")) {
+				continue;
+			}
+
+			if (currentToken.startsWith("--")) {
+				currentOption.append(currentToken.substring(currentToken.lastIndexOf("-") + 1));
+				if (i + 1 == split.length) {
+					legacyStore(result, currentOption, currentValue);
+					break;
+				}
+				if (split[i + 1].startsWith("-")) {
+					legacyStore(result, currentOption, currentValue);
+					currentOption = new StringBuilder();
+					currentValue = new StringBuilder();
+				}
+				continue;
+			}
+
+			if (currentOption.length() == 0) {
+				if (currentValue.length() > 0) {
+					currentValue.append(" ");
+				}
+				currentValue.append(currentToken);
+				if (i + 1 == split.length) {
+					legacyStore(result, currentOption, currentValue);
+					break;
+				}
+				if (split[i + 1].startsWith("--")) {
+					legacyStore(result, currentOption, currentValue);
+					currentOption = new StringBuilder();
+					currentValue = new StringBuilder();
+				}
+				continue;
+			}
+
+			currentValue.append(currentToken);
+			legacyStore(result, currentOption, currentValue);
+			currentOption = new StringBuilder();
+			currentValue = new StringBuilder();
+		}
+
+		if (result.containsKey("") && result.get("").trim().equals("")) {
+			result.remove("");
+		}
+		return result;
+	}
+
+	private void legacyStore(final Map<String, String> results, final StringBuilder currentOption, final StringBuilder currentValue) {
+		if (currentOption.length() > 0) {
+			String option = currentOption.toString();
+			org.springframework.roo.support.util.Assert.isTrue(!results.containsKey(option), "You cannot specify option '" + option + "' more than once in a single command");
+			results.put(option, currentValue.toString());
+		} else {
+			org.springframework.roo.support.util.Assert.isTrue(!results.containsKey(""), "You cannot add more than one default option ('" + currentValue.toString() + "') in a single command");
+			results.put("", currentValue.toString());
+		}
+	}
+}
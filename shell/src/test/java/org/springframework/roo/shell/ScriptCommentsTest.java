@@ -0,0 +1,62 @@
+package org.springframework.roo.shell;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Unit test of {@link ScriptComments}
+ */
+public class ScriptCommentsTest {
+
+	@Test
+	public void testLineCommentWithBlockStartLeavesNoCommentOpen() {
+		// Set up
+		final ScriptComments comments = new ScriptComments(false);
+
+		// Invoke and check
+		assertNull(comments.getCommandText("// see src/*"));
+		assertFalse(comments.isInBlockComment());
+		assertEquals("hint", comments.getCommandText("hint"));
+	}
+
+	@Test
+	public void testBlockStartWithinCommandIsPartOfIt() {
+		// Set up
+		final ScriptComments comments = new ScriptComments(false);
+
+		// Invoke and check
+		assertEquals("add --pattern src/*.java", comments.getCommandText("add --pattern src/*.java"));
+		assertFalse(comments.isInBlockComment());
+	}
+
+	@Test
+	public void testLineHoldingBothMarkersLeavesNoCommentOpen() {
+		// Set up
+		final ScriptComments comments = new ScriptComments(false);
+
+		// Invoke and check
+		assertNull(comments.getCommandText("/* inline */"));
+		assertNull(comments.getCommandText("hint /* inline */"));
+		assertFalse(comments.isInBlockComment());
+	}
+
+	@Test
+	public void testBlockCommentOpenedAtStartOfLineUntilClosed() {
+		// Set up
+		final ScriptComments comments = new ScriptComments(false);
+
+		// Invoke and check
+		assertNull(comments.getCommandText("  /*"));
+		assertTrue(comments.isInBlockComment());
+		assertNull(comments.getCommandText("hint"));
+		assertNull(comments.getCommandText("// still /* within"));
+		assertTrue(comments.isInBlockComment());
+		assertNull(comments.getCommandText("*/"));
+		assertFalse(comments.isInBlockComment());
+		assertEquals("version", comments.getCommandText("version"));
+	}
+}
@@ -1,9 +1,28 @@
 package org.springframework.roo.shell;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.roo.shell.SimpleParser;
+import org.springframework.roo.shell.converters.IntegerConverter;
+import org.springframework.roo.shell.converters.StringConverter;
+import org.springframework.roo.shell.event.CommandAvailabilityListener;
+import org.springframework.roo.shell.event.CommandAvailabilityProvider;
+import org.springframework.roo.shell.event.ConverterSupportListener;
+import org.springframework.roo.shell.event.ConverterSupportProvider;
+import org.springframework.roo.support.util.StringUtils;
 
 
 
@@ -17,10 +36,14 @@ public class SimpleParserTest {
 
 	// Fixture
 	private SimpleParser simpleParser;
+	private TestCommands commands;
 
 	@Before
 	public void setUp() {
+		this.commands = new TestCommands();
 		this.simpleParser = new SimpleParser();
+		this.simpleParser.add(commands);
+		this.simpleParser.add(new StringConverter());
 	}
 
 	@Test
@@ -43,6 +66,434 @@ public class SimpleParserTest {
 		assertNormalised(" security   setup ", "security setup");
 	}
 
+	@Test
+	public void testParseCommandWithOption() throws Exception {
+		// Invoke
+		final ParseResult parseResult = simpleParser.parse("greet --name Bob");
+
+		// Check
+		Assert.assertEquals(TestCommands.class.getMethod("greet", String.class), parseResult.getMethod());
+		Assert.assertArrayEquals(new Object[] { "Bob" }, parseResult.getArguments());
+	}
+
+	@Test
+	public void testInvokeParsedCommand() {
+		// Set up
+		final ParseResult parseResult = simpleParser.parse("greet --name Bob");
+
+		// Invoke
+		final Object result = parseResult.invoke();
+
+		// Check
+		Assert.assertEquals("Hello Bob", result);
+		Assert.assertSame(commands, parseResult.getInvoker().getTarget());
+	}
+
+	@Test
+	public void testBindPreparedCommand() {
+		// Set up
+		final PreparedCommand preparedCommand = simpleParser.prepare("hello");
+
+		// Invoke
+		final ParseResult first = preparedCommand.bind("--name Bob");
+		final ParseResult second = preparedCommand.bind("--name  \"Ann Lee\"");
+
+		// Check
+		Assert.assertArrayEquals(new Object[] { "Bob" }, first.getArguments());
+		Assert.assertArrayEquals(new Object[] { "Ann Lee" }, second.getArguments());
+		Assert.assertNull(preparedCommand.bind("--age 3"));
+	}
+
+	@Test
+	public void testPrepareUnknownCommand() {
+		Assert.assertNull(simpleParser.prepare("goodbye"));
+	}
+
+	@Test
+	public void testBindPreparedCommandWhenUnavailable() {
+		// Set up
+		final PreparedCommand preparedCommand = simpleParser.prepare("sec set");
+		commands.securityAvailable = false;
+
+		// Invoke and check
+		Assert.assertNull(preparedCommand.bind(""));
+	}
+
+	@Test
+	public void testBindPreparedCommandAfterConverterAdded() {
+		// Set up
+		final PreparedCommand preparedCommand = simpleParser.prepare("greet");
+		simpleParser.add(new ShoutingConverter());
+
+		// Invoke
+		final ParseResult parseResult = preparedCommand.bind("--name Bob");
+
+		// Check
+		Assert.assertArrayEquals(new Object[] { "Bob" }, parseResult.getArguments());
+	}
+
+	@Test
+	public void testCompileConvertsSideEffectFreeOptions() {
+		// Set up
+		simpleParser.add(new IntegerConverter());
+
+		// Invoke
+		final CompiledCommand compiledCommand = simpleParser.compile("repeat --message hi --times 2");
+
+		// Check
+		Assert.assertEquals("repeat", compiledCommand.getCommand());
+		Assert.assertEquals("hihi", simpleParser.bind(compiledCommand).invoke());
+		Assert.assertNull(simpleParser.compile("repeat --message hi --times twice"));
+	}
+
+	@Test
+	public void testCompileLeavesOptionsWithoutConverterToBinding() {
+		// Invoke
+		final CompiledCommand compiledCommand = simpleParser.compile("repeat --message hi --times 2");
+
+		// Check
+		Assert.assertNotNull(compiledCommand);
+		Assert.assertNull(simpleParser.bind(compiledCommand));
+		simpleParser.add(new IntegerConverter());
+		Assert.assertEquals("hihi", simpleParser.bind(compiledCommand).invoke());
+	}
+
+		@Test
+	public void testParseCommandWithUnknownOption() {
+		Assert.assertNull(simpleParser.parse("greet --name Bob --age 3"));
+	}
+
+	@Test
+	public void testParseCommandWithoutMandatoryOption() {
+		Assert.assertNull(simpleParser.parse("greet"));
+	}
+
+	@Test
+	public void testContextSpecificConverterTakesPriority() {
+		// Set up
+		simpleParser.add(new ShoutingConverter());
+
+		// Invoke
+		final ParseResult parseResult = simpleParser.parse("shout --message hello");
+
+		// Check
+		Assert.assertArrayEquals(new Object[] { "HELLO" }, parseResult.getArguments());
+	}
+
+	@Test
+	public void testEarlierConverterTakesPriorityOnceItSupportsType() {
+		// Set up
+		final ToggledConverter toggledConverter = new ToggledConverter();
+		simpleParser = new SimpleParser();
+		simpleParser.add(toggledConverter);
+		simpleParser.add(new StringConverter());
+		simpleParser.add(commands);
+		Assert.assertArrayEquals(new Object[] { "Bob" }, simpleParser.parse("greet --name Bob").getArguments());
+
+		// Invoke
+		toggledConverter.setEnabled(true);
+		final ParseResult parseResult = simpleParser.parse("greet --name Bob");
+
+		// Check
+		Assert.assertArrayEquals(new Object[] { "BOB" }, parseResult.getArguments());
+	}
+
+	@Test
+	public void testConverterSupportIsNotAskedAgainUntilChanged() {
+		// Set up
+		final ToggledConverter toggledConverter = new ToggledConverter();
+		simpleParser = new SimpleParser();
+		simpleParser.add(toggledConverter);
+		simpleParser.add(new StringConverter());
+		simpleParser.add(commands);
+		simpleParser.parse("greet --name Bob");
+		final int supportsCalls = toggledConverter.supportsCalls;
+
+		// Invoke
+		for (int i = 0; i < 10; i++) {
+			simpleParser.parse("greet --name Bob");
+		}
+
+		// Check
+		Assert.assertEquals(supportsCalls, toggledConverter.supportsCalls);
+		simpleParser.remove(toggledConverter);
+		toggledConverter.setEnabled(true);
+		Assert.assertArrayEquals("A removed converter is no longer listened to", new Object[] { "Bob" }, simpleParser.parse("greet --name Bob").getArguments());
+		Assert.assertEquals(supportsCalls, toggledConverter.supportsCalls);
+	}
+
+	@Test
+	public void testParseAfterConverterRemoved() {
+		// Set up
+		final ShoutingConverter shoutingConverter = new ShoutingConverter();
+		simpleParser.add(shoutingConverter);
+		Assert.assertNotNull(simpleParser.parse("shout --message hello"));
+
+		// Invoke
+		simpleParser.remove(shoutingConverter);
+		final ParseResult parseResult = simpleParser.parse("shout --message hello");
+
+		// Check
+		Assert.assertArrayEquals(new Object[] { "hello" }, parseResult.getArguments());
+	}
+
+	/**
+	 * Each parse and completion blocks inside the converter until all of them
+	 * have reached it, so this only passes if they run at the same time.
+	 */
+	@Test
+	public void testConcurrentParsingAndCompletion() throws Exception {
+		// Set up
+		final int threads = 8;
+		final CyclicBarrier barrier = new CyclicBarrier(threads);
+		simpleParser.add(new BarrierConverter(barrier));
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		final List<Future<Object>> results = new ArrayList<Future<Object>>();
+
+		// Invoke
+		try {
+			for (int i = 0; i < threads; i++) {
+				final boolean parse = i % 2 == 0;
+				results.add(executor.submit(new Callable<Object>() {
+					public Object call() throws Exception {
+						if (parse) {
+							return simpleParser.parse("await --value parsed");
+						}
+						final List<Completion> completions = new ArrayList<Completion>();
+						simpleParser.completeAdvanced("await --value ", 14, completions);
+						return completions;
+					}
+				}));
+			}
+
+			// Check
+			for (int i = 0; i < threads; i++) {
+				final Object result = results.get(i).get(30, TimeUnit.SECONDS);
+				if (i % 2 == 0) {
+					Assert.assertArrayEquals(new Object[] { "parsed" }, ((ParseResult) result).getArguments());
+				} else {
+					Assert.assertEquals(1, ((List<?>) result).size());
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testParseCommandAlias() throws Exception {
+		// Invoke
+		final ParseResult parseResult = simpleParser.parse("hello --name Bob");
+
+		// Check
+		Assert.assertEquals(TestCommands.class.getMethod("greet", String.class), parseResult.getMethod());
+	}
+
+	@Test
+	public void testParseAbbreviatedMultiWordCommand() throws Exception {
+		// Invoke
+		final ParseResult parseResult = simpleParser.parse("sec set");
+
+		// Check
+		Assert.assertEquals(TestCommands.class.getMethod("securitySetup"), parseResult.getMethod());
+	}
+
+	@Test
+	public void testParseIncompleteMultiWordCommand() {
+		Assert.assertNull(simpleParser.parse("security"));
+	}
+
+	@Test
+	public void testParseUnavailableCommand() {
+		// Set up
+		commands.securityAvailable = false;
+
+		// Invoke and check
+		Assert.assertNull(simpleParser.parse("security setup"));
+	}
+
+	@Test
+	public void testAvailabilityCachedUntilProviderReportsChange() {
+		// Set up
+		final ObservableCommands observable = new ObservableCommands();
+		simpleParser.add(observable);
+
+		// Invoke
+		final ParseResult first = simpleParser.parse("deploy");
+		final ParseResult second = simpleParser.parse("deploy");
+		observable.setAvailable(false);
+		final ParseResult third = simpleParser.parse("deploy");
+
+		// Check
+		Assert.assertNotNull(first);
+		Assert.assertNotNull(second);
+		Assert.assertNull(third);
+		Assert.assertEquals(2, observable.evaluations);
+	}
+
+	@Test
+	public void testAvailabilityCachedForTimeToLive() {
+		// Set up
+		final TimedCommands timed = new TimedCommands();
+		simpleParser.add(timed);
+
+		// Invoke
+		final ParseResult first = simpleParser.parse("backup");
+		timed.available = false;
+		final ParseResult second = simpleParser.parse("backup");
+
+		// Check
+		Assert.assertNotNull(first);
+		Assert.assertNotNull(second);
+		Assert.assertEquals(1, timed.evaluations);
+	}
+
+	@Test
+	public void testAvailabilityEvaluatedAgainOnceTimeToLiveExpires() throws Exception {
+		// Set up
+		final TimedCommands timed = new TimedCommands();
+		simpleParser.add(timed);
+
+		// Invoke
+		final ParseResult first = simpleParser.parse("restore");
+		timed.available = false;
+		Thread.sleep(20);
+		final ParseResult second = simpleParser.parse("restore");
+
+		// Check
+		Assert.assertNotNull(first);
+		Assert.assertNull(second);
+		Assert.assertEquals(2, timed.evaluations);
+	}
+
+	@Test
+	public void testParseRemovedCommand() {
+		// Set up
+		simpleParser.remove(commands);
+
+		// Invoke and check
+		Assert.assertNull(simpleParser.parse("greet --name Bob"));
+		Assert.assertTrue(simpleParser.getEveryCommand().isEmpty());
+	}
+
+	@Test
+	public void testGetEveryCommand() {
+		Assert.assertEquals(Arrays.asList("await", "greet", "hello", "repeat", "security setup", "shout"), new ArrayList<String>(simpleParser.getEveryCommand()));
+	}
+
+	@Test
+	public void testCompletePartialMultiWordCommand() {
+		// Set up
+		final List<String> candidates = new ArrayList<String>();
+
+		// Invoke
+		simpleParser.complete("sec", 3, candidates);
+
+		// Check
+		Assert.assertEquals(Arrays.asList("security setup"), candidates);
+	}
+
+	@Test
+	public void testMatchCommandWithOptions() {
+		Assert.assertEquals("--name foo", isMatch("sec set --name foo", "security setup", true));
+	}
+
+	@Test
+	public void testMatchCommandWithSkippedWord() {
+		Assert.assertNull(isMatch("security add", "security setup add", false));
+	}
+
+	@Test
+	public void testMatchCommandMatchesLegacyImplementation() {
+		// Set up
+		final String[] commands = { "s", "sec", "security setup", "se set", "set se", "security setup add", "a b c" };
+		final char[] alphabet = { 's', 'e', 't', 'c', 'a', 'b', ' ', ' ', '\t', '-' };
+		final Random random = new Random(42);
+
+		for (int i = 0; i < 100000; i++) {
+			final StringBuilder buffer = new StringBuilder();
+			final int length = random.nextInt(12);
+			for (int j = 0; j < length; j++) {
+				buffer.append(alphabet[random.nextInt(alphabet.length)]);
+			}
+			final String command = commands[random.nextInt(commands.length)];
+			final boolean strict = random.nextBoolean();
+
+			// Invoke and check
+			Assert.assertEquals("Buffer [" + buffer + "], command [" + command + "], strict " + strict, legacyIsMatch(buffer.toString(), command, strict), isMatch(buffer.toString(), command, strict));
+		}
+	}
+
+	@Test
+	public void testParseCommandFollowedByTab() {
+		Assert.assertArrayEquals(new Object[] { "Bob" }, simpleParser.parse("greet\t --name Bob").getArguments());
+	}
+
+	/**
+	 * Matches the given buffer against the given command, as the parser does for each candidate
+	 *
+	 * @return the remaining buffer, or <code>null</code> if it doesn't match
+	 */
+	private static String isMatch(final String buffer, final String command, final boolean strictMatching) {
+		final int offset = SimpleParser.matchCommand(buffer, StringUtils.delimitedListToStringArray(command, " "), strictMatching);
+		return offset < 0 ? null : buffer.substring(offset);
+	}
+
+	/**
+	 * The substring-based implementation of command matching that {@link SimpleParser#matchCommand(String, String[], boolean)}
+	 * replaced, against which the latter is checked.
+	 */
+	private static String legacyIsMatch(final String buffer, final String command, final boolean strictMatching) {
+		if ("".equals(buffer.trim())) {
+			return "";
+		}
+		String[] commandWords = StringUtils.delimitedListToStringArray(command, " ");
+		int lastCommandWordUsed = 0;
+		String bufferToReturn = null;
+		String lastWord = null;
+
+		next_buffer_loop: for (int bufferIndex = 0; bufferIndex < buffer.length(); bufferIndex++) {
+			String bufferSoFarIncludingThis = buffer.substring(0, bufferIndex + 1);
+			String bufferRemaining = buffer.substring(bufferIndex + 1);
+			int bufferLastIndexOfWord = bufferSoFarIncludingThis.lastIndexOf(" ");
+			String wordSoFarIncludingThis = bufferSoFarIncludingThis;
+			if (bufferLastIndexOfWord != -1) {
+				wordSoFarIncludingThis = bufferSoFarIncludingThis.substring(bufferLastIndexOfWord);
+			}
+
+			if (wordSoFarIncludingThis.equals(" ") || bufferIndex == buffer.length() - 1) {
+				if (bufferIndex == buffer.length() - 1 && !"".equals(wordSoFarIncludingThis.trim())) {
+					lastWord = wordSoFarIncludingThis.trim();
+				}
+				for (int candidate = lastCommandWordUsed; candidate < commandWords.length; candidate++) {
+					if (lastWord != null && lastWord.length() > 0 && commandWords[candidate].startsWith(lastWord)) {
+						if (bufferToReturn == null && lastCommandWordUsed == 0 && candidate > 0) {
+							break next_buffer_loop;
+						}
+						if (bufferToReturn != null && candidate != lastCommandWordUsed + 1) {
+							bufferToReturn = null;
+							break next_buffer_loop;
+						}
+						bufferToReturn = bufferRemaining;
+						lastCommandWordUsed = candidate;
+						if (candidate + 1 == commandWords.length) {
+							break next_buffer_loop;
+						}
+						continue next_buffer_loop;
+					}
+				}
+				bufferToReturn = null;
+				break next_buffer_loop;
+			}
+			lastWord = wordSoFarIncludingThis.trim();
+		}
+
+		if (bufferToReturn != null && (!strictMatching || lastCommandWordUsed + 1 == commandWords.length)) {
+			return bufferToReturn;
+		}
+		return null;
+	}
+
 	/**
 	 * Asserts that normalising the given input produces the given output
 	 *
@@ -52,4 +503,203 @@ public class SimpleParserTest {
 	private void assertNormalised(final String input, final String output) {
 		Assert.assertEquals(output, simpleParser.normalise(input));
 	}
+
+	/**
+	 * Commands used by these tests
+	 */
+	public static class TestCommands implements CommandMarker {
+
+		// Fields
+		boolean securityAvailable = true;
+
+		@CliAvailabilityIndicator("security setup")
+		public boolean isSecurityAvailable() {
+			return securityAvailable;
+		}
+
+		@CliCommand(value = "security setup", help = "Sets up security")
+		public void securitySetup() {}
+
+		@CliCommand(value = { "greet", "hello" }, help = "Greets someone")
+		public String greet(@CliOption(key = "name", mandatory = true) final String name) {
+			return "Hello " + name;
+		}
+
+		@CliCommand(value = "await", help = "Waits for other threads")
+		public String await(@CliOption(key = "value", mandatory = true, optionContext = "barrier") final String value) {
+			return value;
+		}
+
+		@CliCommand(value = "repeat", help = "Repeats a message")
+		public String repeat(@CliOption(key = "message", mandatory = true) final String message, @CliOption(key = "times", mandatory = true) final Integer times) {
+			final StringBuilder repeated = new StringBuilder();
+			for (int i = 0; i < times; i++) {
+				repeated.append(message);
+			}
+			return repeated.toString();
+		}
+
+		@CliCommand(value = "shout", help = "Shouts a message")
+		public String shout(@CliOption(key = "message", mandatory = true, optionContext = "shout") final String message) {
+			return message;
+		}
+	}
+
+	/**
+	 * Commands whose availability is reported to the parser when it changes
+	 */
+	public static class ObservableCommands implements CommandMarker, CommandAvailabilityProvider {
+
+		// Fields
+		private final List<CommandAvailabilityListener> listeners = new CopyOnWriteArrayList<CommandAvailabilityListener>();
+		private boolean available = true;
+		int evaluations;
+
+		@CliAvailabilityIndicator("deploy")
+		public boolean isDeployAvailable() {
+			evaluations++;
+			return available;
+		}
+
+		@CliCommand(value = "deploy", help = "Deploys something")
+		public void deploy() {}
+
+		void setAvailable(final boolean available) {
+			this.available = available;
+			for (final CommandAvailabilityListener listener : listeners) {
+				listener.onCommandAvailabilityChange(this);
+			}
+		}
+
+		public void addCommandAvailabilityListener(final CommandAvailabilityListener listener) {
+			listeners.add(listener);
+		}
+
+		public void removeCommandAvailabilityListener(final CommandAvailabilityListener listener) {
+			listeners.remove(listener);
+		}
+	}
+
+	/**
+	 * Commands whose availability is remembered for a given time
+	 */
+	public static class TimedCommands implements CommandMarker {
+
+		// Fields
+		boolean available = true;
+		int evaluations;
+
+		@CliAvailabilityIndicator(value = "backup", timeToLive = 60000)
+		public boolean isBackupAvailable() {
+			evaluations++;
+			return available;
+		}
+
+		@CliAvailabilityIndicator(value = "restore", timeToLive = 1)
+		public boolean isRestoreAvailable() {
+			evaluations++;
+			return available;
+		}
+
+		@CliCommand(value = "backup", help = "Backs something up")
+		public void backup() {}
+
+		@CliCommand(value = "restore", help = "Restores something")
+		public void restore() {}
+	}
+
+	/**
+	 * A converter for the "barrier" option context that waits at the given barrier
+	 * whenever it converts or completes a value
+	 */
+	private static class BarrierConverter implements Converter<String> {
+
+		// Fields
+		private final CyclicBarrier barrier;
+
+		BarrierConverter(final CyclicBarrier barrier) {
+			this.barrier = barrier;
+		}
+
+		public String convertFromText(final String value, final Class<?> requiredType, final String optionContext) {
+			await();
+			return value;
+		}
+
+		public boolean getAllPossibleValues(final List<Completion> completions, final Class<?> requiredType, final String existingData, final String optionContext, final MethodTarget target) {
+			await();
+			completions.add(new Completion("completed"));
+			return true;
+		}
+
+		public boolean supports(final Class<?> requiredType, final String optionContext) {
+			return String.class.equals(requiredType) && "barrier".equals(optionContext);
+		}
+
+		private void await() {
+			try {
+				barrier.await(10, TimeUnit.SECONDS);
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	/**
+	 * A converter that only supports Strings in the "shout" option context
+	 */
+	private static class ShoutingConverter implements Converter<String> {
+
+		public String convertFromText(final String value, final Class<?> requiredType, final String optionContext) {
+			return value.toUpperCase();
+		}
+
+		public boolean getAllPossibleValues(final List<Completion> completions, final Class<?> requiredType, final String existingData, final String optionContext, final MethodTarget target) {
+			return false;
+		}
+
+		public boolean supports(final Class<?> requiredType, final String optionContext) {
+			return String.class.equals(requiredType) && optionContext.contains("shout");
+		}
+	}
+
+	/**
+	 * A converter that only supports Strings once enabled, as a {@link org.springframework.roo.shell.converters.StaticFieldConverter}
+	 * supports a type once a field of that type is added to it
+	 */
+	private static class ToggledConverter implements Converter<String>, ConverterSupportProvider {
+
+		// Fields
+		private final List<ConverterSupportListener> listeners = new CopyOnWriteArrayList<ConverterSupportListener>();
+		private volatile boolean enabled;
+		volatile int supportsCalls;
+
+		void setEnabled(final boolean enabled) {
+			this.enabled = enabled;
+			for (final ConverterSupportListener listener : listeners) {
+				listener.onConverterSupportChange(this);
+			}
+		}
+
+		public void addConverterSupportListener(final ConverterSupportListener listener) {
+			listeners.add(listener);
+		}
+
+		public void removeConverterSupportListener(final ConverterSupportListener listener) {
+			listeners.remove(listener);
+		}
+
+		public String convertFromText(final String value, final Class<?> requiredType, final String optionContext) {
+			return value.toUpperCase();
+		}
+
+		public boolean getAllPossibleValues(final List<Completion> completions, final Class<?> requiredType, final String existingData, final String optionContext, final MethodTarget target) {
+			return false;
+		}
+
+		public boolean supports(final Class<?> requiredType, final String optionContext) {
+			supportsCalls++;
+			return enabled && String.class.equals(requiredType);
+		}
+	}
 }